@@ -27,20 +27,21 @@ package services.moleculer.web;
 
 import static services.moleculer.util.CommonUtils.nameOf;
 import static services.moleculer.web.common.HttpConstants.CONTENT_LENGTH;
+import static services.moleculer.web.common.HttpConstants.PROPERTY_ROUTE_MATCH;
 
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
 import java.util.LinkedList;
-import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
-import java.util.concurrent.locks.ReentrantReadWriteLock.ReadLock;
-import java.util.concurrent.locks.ReentrantReadWriteLock.WriteLock;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import io.datatree.Tree;
 import services.moleculer.ServiceBroker;
@@ -53,13 +54,15 @@ import services.moleculer.web.router.Alias;
 import services.moleculer.web.router.Mapping;
 import services.moleculer.web.router.MappingPolicy;
 import services.moleculer.web.router.Route;
+import services.moleculer.web.router.RouteMatch;
+import services.moleculer.web.router.RouteTree;
 import services.moleculer.web.template.AbstractTemplateEngine;
 
 public class ApiGateway extends Service implements RequestProcessor {
 
 	// --- ROUTES ---
 
-	protected Route[] routes = new Route[0];
+	protected volatile Route[] routes = new Route[0];
 
 	/**
 	 * Last route (for the last middleware)
@@ -79,21 +82,30 @@ public class ApiGateway extends Service implements RequestProcessor {
 	protected boolean debug;
 
 	/**
-	 * Maximum number of cached routes.
+	 * Maximum number of cached mappings of whitelisted paths.
 	 */
 	protected int cachedRoutes = 2048;
 
 	// --- VARIABLES ---
 
 	/**
-	 * Static mappings.
+	 * Compiled aliases and whitelists of the Routes (eg. "/user/:id"). This
+	 * is an immutable snapshot, it is replaced (not modified) when the Routes
+	 * change, so the request processing threads can read it without locking.
 	 */
-	protected LinkedHashMap<String, Mapping> staticMappings;
+	protected volatile RouteTree routeTree = new RouteTree();
 
 	/**
-	 * Dynamic mappings.
+	 * Whitelisted paths (with HTTP methods, eg. "GET /math/add") found by the
+	 * request processing threads, but not precompiled in the current
+	 * RouteTree.
 	 */
-	protected final LinkedList<Mapping> dynamicMappings = new LinkedList<>();
+	protected final ConcurrentLinkedQueue<String> newPaths = new ConcurrentLinkedQueue<>();
+
+	/**
+	 * Background compilation of the new whitelisted paths is scheduled.
+	 */
+	protected final AtomicBoolean compilePaths = new AtomicBoolean();
 
 	/**
 	 * Global middlewares.
@@ -144,11 +156,6 @@ public class ApiGateway extends Service implements RequestProcessor {
 	 */
 	protected ExecutorService executor;
 
-	// --- LOCKS FOR MAPPINGS ---
-
-	protected final ReadLock readLock;
-	protected final WriteLock writeLock;
-
 	// --- SEND WEBSOCKET ---
 
 	/**
@@ -240,6 +247,9 @@ public class ApiGateway extends Service implements RequestProcessor {
 				logAlias(msg, route, alias);
 			}
 		}
+
+		// Rebuild RouteTree
+		compileMappings();
 	};
 
 	// --- CONSTRUCTORS ---
@@ -250,11 +260,6 @@ public class ApiGateway extends Service implements RequestProcessor {
 
 	public ApiGateway(String... whiteListEntries) {
 
-		// Init locks for static/dynamic mappings
-		ReentrantReadWriteLock lock = new ReentrantReadWriteLock(false);
-		readLock = lock.readLock();
-		writeLock = lock.writeLock();
-
 		// Add basic route for REST services ("service1*", "service2.action")
 		if (whiteListEntries != null && whiteListEntries.length > 0) {
 			addRoute(new Route()).addToWhiteList(whiteListEntries);
@@ -273,20 +278,6 @@ public class ApiGateway extends Service implements RequestProcessor {
 	public void started(ServiceBroker broker) throws Exception {
 		super.started(broker);
 
-		// Static mappings
-		staticMappings = new LinkedHashMap<String, Mapping>((cachedRoutes + 1) * 2) {
-
-			private static final long serialVersionUID = 2994447707758047152L;
-
-			protected final boolean removeEldestEntry(Map.Entry<String, Mapping> entry) {
-				if (this.size() > cachedRoutes) {
-					return true;
-				}
-				return false;
-			};
-
-		};
-
 		// Start global middlewares
 		for (HttpMiddleware middleware : globalMiddlewares) {
 			middleware.started(broker);
@@ -306,57 +297,153 @@ public class ApiGateway extends Service implements RequestProcessor {
 		logRoute(lastRoute);
 
 		// Prepare mappings
-		LinkedList<Mapping> mappingList = new LinkedList<>();
-		for (Route route : routes) {
+		compileMappings();
+	}
+
+	/**
+	 * Builds the RouteTree from the aliases and whitelists of the Routes. This
+	 * method is invoked when the Routes change, never by the request
+	 * processing threads.
+	 */
+	protected synchronized void compileMappings() {
+		if (broker == null) {
+
+			// Not started
+			return;
+		}
+		Route[] currentRoutes = routes;
+		RouteTree tree = new RouteTree();
+		for (int i = 0; i < currentRoutes.length; i++) {
+			Route route = currentRoutes[i];
 			Alias[] aliases = route.getAliases();
 			if (aliases != null) {
 				for (Alias alias : aliases) {
-					String httpMethod = alias.getHttpMethod();
-					if (httpMethod == null || Alias.ALL.equals(httpMethod) || Alias.REST.equals(httpMethod)) {
+					if (alias == null) {
 						continue;
 					}
-					String path = alias.getPathPattern();
-					Mapping mapping = route.findMapping(httpMethod, path);
-					if (mapping != null) {
-						mappingList.addLast(mapping);
+					Mapping mapping = route.createMapping(alias.getHttpMethod(),
+							route.getPath() + alias.getPathPattern(), alias.getActionName());
+					if (!globalMiddlewares.isEmpty()) {
+						mapping.use(globalMiddlewares);
 					}
+					tree.addMapping(mapping);
 				}
 			}
-		}
-		if (!mappingList.isEmpty()) {
-			Mapping[] mappingArray = new Mapping[mappingList.size()];
-			mappingList.toArray(mappingArray);
-			Arrays.sort(mappingArray, (m1, m2) -> {
-				int v1 = m1.getPathPrefix().length();
-				int v2 = m2.getPathPrefix().length();
-				return Integer.compare(v1, v2);
-			});
-			cachedRoutes = Math.max(cachedRoutes, mappingArray.length);
-			writeLock.lock();
-			try {
-				for (Mapping mapping : mappingArray) {
-					if (!globalMiddlewares.isEmpty()) {
-						mapping.use(globalMiddlewares);
+			String[] whiteList = route.getWhiteList();
+			if (whiteList != null) {
+				for (String whiteListEntry : whiteList) {
+					if (whiteListEntry != null) {
+						tree.addWhiteListEntry(route, i, whiteListEntry);
 					}
-					if (mapping.isStatic()) {
-						String staticKey = mapping.getHttpMethod() + ' ' + mapping.getPathPrefix();
-						staticMappings.put(staticKey, mapping);
-						if (debug) {
-							logger.info("New mapping for \"" + mapping.getPathPrefix()
-									+ "\" stored in the static mapping cache (key: " + staticKey + ").");
-						}
-					} else {
-						dynamicMappings.addLast(mapping);
-						if (debug) {
-							logger.info("New mapping for \"" + mapping.getPathPrefix()
-									+ "\" stored in the dynamic mapping cache.");
+				}
+			}
+			if (route.getMappingPolicy() == MappingPolicy.ALL) {
+				tree.addPolicyRoute(route, i);
+			}
+		}
+
+		// Precompile the whitelisted paths of the local actions
+		// (eg. "GET /math/add" and "POST /math/add") and the paths of the
+		// previous RouteTree
+		LinkedHashSet<String> keys = new LinkedHashSet<>();
+		Tree descriptor = broker.getConfig().getServiceRegistry().getDescriptor();
+		Tree services = descriptor == null ? null : descriptor.get("services");
+		if (services != null) {
+			for (Tree service : services) {
+				Tree actions = service.get("actions");
+				if (actions == null) {
+					continue;
+				}
+				for (Tree action : actions) {
+					String actionName = action.get("name", "");
+					if (actionName != null && !actionName.isEmpty()) {
+						String actionPath = '/' + actionName.replace('.', '/').replace('$', '~');
+						for (Route route : currentRoutes) {
+							keys.add(Alias.GET + ' ' + route.getPath() + actionPath);
+							keys.add(Alias.POST + ' ' + route.getPath() + actionPath);
 						}
 					}
 				}
-			} finally {
-				writeLock.unlock();
 			}
 		}
+		keys.addAll(routeTree.getWhiteListMappings().keySet());
+		for (String key : keys) {
+			if (tree.getWhiteListMappings().size() >= cachedRoutes) {
+				break;
+			}
+			Mapping mapping = createWhiteListMapping(tree, key);
+			if (mapping != null) {
+				tree.addWhiteListMapping(key, mapping);
+			}
+		}
+		routeTree = tree;
+		if (debug) {
+			logger.info("Mappings of " + currentRoutes.length + " routes compiled.");
+		}
+	}
+
+	/**
+	 * Adds the new whitelisted paths (found by the request processing threads)
+	 * to a copy of the current RouteTree. Invoked by the Executor.
+	 */
+	protected synchronized void compileNewPaths() {
+		compilePaths.set(false);
+		RouteTree tree = routeTree;
+		LinkedHashMap<String, Mapping> mappings = new LinkedHashMap<>(tree.getWhiteListMappings());
+		boolean changed = false;
+		String key;
+		while ((key = newPaths.poll()) != null) {
+			if (mappings.containsKey(key)) {
+				continue;
+			}
+			Mapping mapping = createWhiteListMapping(tree, key);
+			if (mapping == null) {
+				continue;
+			}
+
+			// Remove the oldest Mapping
+			if (mappings.size() >= cachedRoutes) {
+				Iterator<String> i = mappings.keySet().iterator();
+				i.next();
+				i.remove();
+			}
+			mappings.put(key, mapping);
+			changed = true;
+		}
+		if (changed) {
+			routeTree = new RouteTree(tree, mappings);
+		}
+	}
+
+	/**
+	 * Creates Mapping for a whitelisted path. The Mapping belongs to the HTTP
+	 * method of the key (like the Mappings of the aliases), so the
+	 * middlewares get the real method in the configuration of the Mapping.
+	 * 
+	 * @param tree
+	 *            compiled RouteTree
+	 * @param key
+	 *            HTTP method and full path (eg. "POST /math/add")
+	 * 
+	 * @return new Mapping, or null if the path is not whitelisted (or the
+	 *         Mapping is not static)
+	 */
+	protected Mapping createWhiteListMapping(RouteTree tree, String key) {
+		int i = key.indexOf(' ');
+		String httpMethod = key.substring(0, i);
+		String path = key.substring(i + 1);
+		Route route = tree.findRoute(path);
+		if (route == null) {
+			return null;
+		}
+		Mapping mapping = route.createMapping(httpMethod, path);
+		if (!mapping.isStatic()) {
+			return null;
+		}
+		if (!globalMiddlewares.isEmpty()) {
+			mapping.use(globalMiddlewares);
+		}
+		return mapping;
 	}
 
 	protected void logRoute(Route route) {
@@ -468,13 +555,7 @@ public class ApiGateway extends Service implements RequestProcessor {
 	}
 
 	protected void clearMappings() {
-		writeLock.lock();
-		try {
-			staticMappings.clear();
-			dynamicMappings.clear();
-		} finally {
-			writeLock.unlock();
-		}
+		routeTree = new RouteTree();
 	}
 
 	// --- PROCESS (NETTY OR J2EE) HTTP REQUEST ---
@@ -496,79 +577,59 @@ public class ApiGateway extends Service implements RequestProcessor {
 	@Override
 	public void service(WebRequest req, WebResponse rsp) throws Exception {
 
-		// Try to find in static mappings (eg. "/user")
+		// Try to find in compiled aliases (eg. "/user" or "/user/:id")
 		String httpMethod = req.getMethod();
 		String path = req.getPath();
-		String staticKey = httpMethod + ' ' + path;
+		RouteTree tree = routeTree;
+		RouteMatch match = tree.find(httpMethod, path);
 		Mapping mapping;
-		readLock.lock();
-		try {
-			mapping = staticMappings.get(staticKey);
-			if (mapping == null) {
-
-				// Try to find in dynamic mappings (eg. "/user/:id")
-				for (Mapping dynamicMapping : dynamicMappings) {
-					if (dynamicMapping.matches(httpMethod, path)) {
-						if (debug) {
-							logger.info(httpMethod + ' ' + path + " found in dyncmic mapping cache.");
-						}
-						mapping = dynamicMapping;
-						break;
-					}
-				}
-			} else if (debug) {
-				logger.info(httpMethod + ' ' + path + " found in static mapping cache (key: " + staticKey + ").");
+		if (match != null) {
+			mapping = match.mapping;
+			if (debug) {
+				logger.info(httpMethod + ' ' + path + " found in route tree (pattern: " + mapping.getPathPattern()
+						+ ").");
 			}
-		} finally {
-			readLock.unlock();
+			if (match.size() > 0) {
+				rsp.setProperty(PROPERTY_ROUTE_MATCH, match);
+			}
+			mapping.service(req, rsp);
+			return;
 		}
 
-		// Invoke cached mapping
+		// Try to find in precompiled mappings of whitelisted paths
+		String key = httpMethod + ' ' + path;
+		mapping = tree.getWhiteListMapping(key);
 		if (mapping != null) {
+			if (debug) {
+				logger.info(httpMethod + ' ' + path + " found in whitelisted mappings.");
+			}
 			mapping.service(req, rsp);
 			return;
 		}
 
-		// Find in routes
-		for (Route route : routes) {
-			mapping = route.findMapping(httpMethod, path);
-			if (mapping != null) {
-				if (!globalMiddlewares.isEmpty()) {
-					mapping.use(globalMiddlewares);
-				}
-				break;
+		// Find in whitelists
+		Route route = tree.findRoute(path);
+		if (route != null) {
+			mapping = route.createMapping(httpMethod, path);
+			if (!globalMiddlewares.isEmpty()) {
+				mapping.use(globalMiddlewares);
 			}
-		}
 
-		// Store new mapping in cache
-		if (mapping != null) {
-			writeLock.lock();
-			try {
-				if (mapping.isStatic()) {
-					staticMappings.put(staticKey, mapping);
-					if (debug) {
-						logger.info("New mapping for \"" + mapping.getPathPrefix()
-								+ "\" stored in the static mapping cache (key: " + staticKey + ").");
-					}
-				} else {
-					dynamicMappings.addLast(mapping);
-					if (dynamicMappings.size() > cachedRoutes) {
-						dynamicMappings.removeFirst();
-					}
-					if (debug) {
-						logger.info("New mapping for \"" + mapping.getPathPrefix()
-								+ "\" stored in the dynamic mapping cache.");
-					}
+			// Compile the new path in the background
+			if (mapping.isStatic()) {
+				newPaths.add(key);
+				if (compilePaths.compareAndSet(false, true)) {
+					Executor runner = executor == null ? broker.getConfig().getExecutor() : executor;
+					runner.execute(this::compileNewPaths);
+				}
+				if (debug) {
+					logger.info("New mapping for \"" + mapping.getPathPrefix() + "\" will be precompiled.");
 				}
-			} finally {
-				writeLock.unlock();
 			}
 
-			// Invoke new (and cached) mapping
-			if (mapping != null) {
-				mapping.service(req, rsp);
-				return;
-			}
+			// Invoke new mapping
+			mapping.service(req, rsp);
+			return;
 		}
 
 		// Find in "lastRoute" (~=executes NotFound middleware)
@@ -624,7 +685,7 @@ public class ApiGateway extends Service implements RequestProcessor {
 					logger.warn("Unable to start middleware!", cause);
 				}
 			}
-			clearMappings();
+			compileMappings();
 		}
 	}
 
@@ -712,6 +773,9 @@ public class ApiGateway extends Service implements RequestProcessor {
 			route.setExecutor(executor);
 		}
 
+		// Rebuild RouteTree on changes
+		route.setChangeListener(this::compileMappings);
+
 		// Add the new route to array of Routes
 		Route[] copy = new Route[routes.length + 1];
 		System.arraycopy(routes, 0, copy, 0, routes.length);
@@ -725,6 +789,7 @@ public class ApiGateway extends Service implements RequestProcessor {
 			} catch (Exception cause) {
 				logger.warn("Unable to start route!", cause);
 			}
+			compileMappings();
 		}
 
 		// Return route
@@ -0,0 +1,123 @@
+/**
+ * THIS SOFTWARE IS LICENSED UNDER MIT LICENSE.<br>
+ * <br>
+ * Copyright 2019 Andras Berkes [andras.berkes@programmer.net]<br>
+ * Based on Moleculer Framework for NodeJS [https://moleculer.services].
+ * <br><br>
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:<br>
+ * <br>
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.<br>
+ * <br>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package services.moleculer.web.common;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.Deflater;
+
+/**
+ * Pool of reusable Deflaters (with the same compression level and format).
+ * The native zlib state of a Deflater is about 256 KB; the pool keeps it
+ * alive between the requests, and frees it explicitly (by calling "end()")
+ * when the pool is full or cleared.
+ */
+public class DeflaterPool {
+
+	// --- PROPERTIES ---
+
+	protected final int level;
+
+	protected final boolean nowrap;
+
+	protected final int maxSize;
+
+	// --- POOLED INSTANCES ---
+
+	protected final ConcurrentLinkedQueue<Deflater> deflaters = new ConcurrentLinkedQueue<>();
+
+	protected final AtomicInteger size = new AtomicInteger();
+
+	// --- CONSTRUCTOR ---
+
+	/**
+	 * Creates a pool of Deflaters.
+	 * 
+	 * @param level
+	 *            compression level (0-9)
+	 * @param nowrap
+	 *            if true then the Deflaters create raw deflate data (without
+	 *            the ZLIB header and checksum, eg. for GZIP format)
+	 * @param maxSize
+	 *            maximum number of idle Deflaters in the pool
+	 */
+	public DeflaterPool(int level, boolean nowrap, int maxSize) {
+		this.level = level;
+		this.nowrap = nowrap;
+		this.maxSize = maxSize;
+	}
+
+	// --- ACQUIRE / RELEASE ---
+
+	public Deflater acquire() {
+		Deflater deflater = deflaters.poll();
+		if (deflater == null) {
+			return new Deflater(level, nowrap);
+		}
+		size.decrementAndGet();
+		return deflater;
+	}
+
+	public void release(Deflater deflater) {
+		if (deflater == null) {
+			return;
+		}
+		deflater.reset();
+		if (size.incrementAndGet() <= maxSize) {
+			deflaters.offer(deflater);
+		} else {
+			size.decrementAndGet();
+			deflater.end();
+		}
+	}
+
+	public void clear() {
+		Deflater deflater;
+		while ((deflater = deflaters.poll()) != null) {
+			size.decrementAndGet();
+			deflater.end();
+		}
+	}
+
+	// --- GETTERS ---
+
+	public int size() {
+		return size.get();
+	}
+
+	public int getLevel() {
+		return level;
+	}
+
+	public boolean isNowrap() {
+		return nowrap;
+	}
+
+	public int getMaxSize() {
+		return maxSize;
+	}
+
+}
@@ -34,6 +34,7 @@ import java.net.URI;
 import java.net.URL;
 import java.util.HashMap;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -60,6 +61,40 @@ public final class GatewayUtils implements HttpConstants {
 
 	protected static final long jarTimestamp = System.currentTimeMillis();
 
+	// --- CLIENT STATE ---
+
+	/**
+	 * Checks whether the HTTP client has closed the connection. The connectors
+	 * provide the state in the "$disconnected" property (Netty: the channel
+	 * is inactive; Servlet: the AsyncContext reported an error).
+	 * 
+	 * @param rsp
+	 *            WebResponse object
+	 * 
+	 * @return true if nobody will read the response
+	 */
+	public static final boolean isDisconnected(WebResponse rsp) {
+		Object disconnected = rsp.getProperty(PROPERTY_DISCONNECTED);
+		if (disconnected instanceof AtomicBoolean) {
+			return ((AtomicBoolean) disconnected).get();
+		}
+		return Boolean.TRUE.equals(disconnected);
+	}
+
+	/**
+	 * Checks whether the action call was cancelled (the client disconnected
+	 * or the deadline passed). The response of a cancelled call is ended
+	 * without content; the middlewares must not store or encode it.
+	 * 
+	 * @param rsp
+	 *            WebResponse object
+	 * 
+	 * @return true if the response has no content
+	 */
+	public static final boolean isCancelled(WebResponse rsp) {
+		return Boolean.TRUE.equals(rsp.getProperty(PROPERTY_CANCELLED));
+	}
+
 	// --- ERROR HANDLER ---
 
 	public static final void sendError(WebResponse rsp, Throwable cause) {
@@ -207,6 +242,20 @@ public final class GatewayUtils implements HttpConstants {
 		return false;
 	}
 
+	public static final File getLocalFile(String path) {
+		try {
+			URL url = getFileURL(path);
+			if (url != null && "file".equals(url.getProtocol())) {
+				File file = new File(new URI(url.toString()));
+				if (file.isFile()) {
+					return file;
+				}
+			}
+		} catch (Exception ignored) {
+		}
+		return null;
+	}
+
 	public static final long getFileSize(String path) {
 		InputStream in = null;
 		try {
@@ -44,6 +44,8 @@ public interface HttpConstants {
 	public static final String X_FORWARDED_FOR = "X-Forwarded-For";
 	public static final String COOKIE = "Cookie";
 	public static final String IF_NONE_MATCH = "If-None-Match";
+	public static final String IF_MODIFIED_SINCE = "If-Modified-Since";
+	public static final String LAST_MODIFIED = "Last-Modified";
 	public static final String CONTENT_TYPE = "Content-Type";
 	public static final String CONTENT_LENGTH = "Content-Length";
 	public static final String CONNECTION = "Connection";
@@ -57,15 +59,22 @@ public interface HttpConstants {
 	public static final String AUTHORIZATION = "Authorization";
 	public static final String WWW_AUTHENTICATE = "WWW-Authenticate";
 	public static final String TRANSFER_ENCODING = "Transfer-Encoding";
+	public static final String RANGE = "Range";
+	public static final String IF_RANGE = "If-Range";
+	public static final String ACCEPT_RANGES = "Accept-Ranges";
+	public static final String CONTENT_RANGE = "Content-Range";
+	public static final String VARY = "Vary";
 
 	// --- HTTP HEADER VALUES ---
 
 	public static final String GZIP = "gzip";
 	public static final String DEFLATE = "deflate";
+	public static final String BROTLI = "br";
 	public static final String KEEP_ALIVE = "keep-alive";
 	public static final String CLOSE = "close";
 	public static final String NO_CACHE = "no-store, no-cache, must-revalidate";
 	public static final String CHUNKED = "chunked";
+	public static final String BYTES = "bytes";
 	
 	// --- CONTENT TYPES ---
 
@@ -77,6 +86,10 @@ public interface HttpConstants {
 	public static final String PROPERTY_SESSION_ID = "sid";
 	public static final String PROPERTY_COOKIES = "cookies";
 	public static final String PROPERTY_USER = "user";
+	public static final String PROPERTY_ROUTE_MATCH = "$routeMatch";
+	public static final String PROPERTY_DEADLINE = "$deadline";
+	public static final String PROPERTY_DISCONNECTED = "$disconnected";
+	public static final String PROPERTY_CANCELLED = "$cancelled";
 	
 	// --- SPECIAL VALUES IN META ---
 
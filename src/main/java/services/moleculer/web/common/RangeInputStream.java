@@ -0,0 +1,171 @@
+/**
+ * THIS SOFTWARE IS LICENSED UNDER MIT LICENSE.<br>
+ * <br>
+ * Copyright 2019 Andras Berkes [andras.berkes@programmer.net]<br>
+ * Based on Moleculer Framework for NodeJS [https://moleculer.services].
+ * <br><br>
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:<br>
+ * <br>
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.<br>
+ * <br>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package services.moleculer.web.common;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Reads the selected byte ranges of an InputStream (eg. body of a "206 Partial
+ * Content" response). The ranges must be in ascending order and must not
+ * overlap. Optional part headers (eg. headers of a "multipart/byteranges"
+ * body) are inserted before the ranges, and an optional trailer (closing
+ * boundary) after the last range.
+ */
+public class RangeInputStream extends InputStream {
+
+	// --- PROPERTIES ---
+
+	protected final InputStream in;
+
+	protected final long[][] ranges;
+
+	protected final byte[][] headers;
+
+	protected final byte[] trailer;
+
+	// --- STATE ---
+
+	/**
+	 * Current position in the source stream.
+	 */
+	protected long position;
+
+	/**
+	 * Index of the current range.
+	 */
+	protected int index;
+
+	/**
+	 * Header (or trailer) bytes being sent.
+	 */
+	protected byte[] prefix;
+
+	protected int prefixOffset;
+
+	/**
+	 * Remaining bytes of the current range.
+	 */
+	protected long remaining;
+
+	// --- CONSTRUCTORS ---
+
+	public RangeInputStream(InputStream in, long[][] ranges) {
+		this(in, ranges, null, null);
+	}
+
+	public RangeInputStream(InputStream in, long[][] ranges, byte[][] headers, byte[] trailer) {
+		this.in = in;
+		this.ranges = ranges;
+		this.headers = headers;
+		this.trailer = trailer;
+		this.index = -1;
+	}
+
+	// --- READ METHODS ---
+
+	@Override
+	public int read() throws IOException {
+		byte[] b = new byte[1];
+		int len = read(b, 0, 1);
+		return len < 1 ? -1 : b[0] & 0xFF;
+	}
+
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException {
+		if (len == 0) {
+			return 0;
+		}
+		while (true) {
+
+			// Send header / trailer
+			if (prefix != null) {
+				int count = Math.min(len, prefix.length - prefixOffset);
+				System.arraycopy(prefix, prefixOffset, b, off, count);
+				prefixOffset += count;
+				if (prefixOffset == prefix.length) {
+					prefix = null;
+				}
+				return count;
+			}
+
+			// Send bytes of the current range
+			if (remaining > 0) {
+				int count = in.read(b, off, (int) Math.min(len, remaining));
+				if (count < 0) {
+					throw new IOException("Unexpected end of stream!");
+				}
+				position += count;
+				remaining -= count;
+				return count;
+			}
+
+			// Next range
+			if (index >= ranges.length) {
+				return -1;
+			}
+			index++;
+			if (index == ranges.length) {
+				if (trailer != null) {
+					setPrefix(trailer);
+				}
+				continue;
+			}
+			long start = ranges[index][0];
+			skipTo(start);
+			remaining = ranges[index][1] - start + 1;
+			if (headers != null && headers[index] != null) {
+				setPrefix(headers[index]);
+			}
+		}
+	}
+
+	protected void setPrefix(byte[] bytes) {
+		prefix = bytes;
+		prefixOffset = 0;
+	}
+
+	protected void skipTo(long start) throws IOException {
+		while (position < start) {
+			long skipped = in.skip(start - position);
+			if (skipped < 1) {
+				if (in.read() < 0) {
+					throw new IOException("Unexpected end of stream!");
+				}
+				skipped = 1;
+			}
+			position += skipped;
+		}
+	}
+
+	// --- CLOSE ---
+
+	@Override
+	public void close() throws IOException {
+		in.close();
+	}
+
+}
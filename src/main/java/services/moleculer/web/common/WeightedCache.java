@@ -0,0 +1,261 @@
+/**
+ * THIS SOFTWARE IS LICENSED UNDER MIT LICENSE.<br>
+ * <br>
+ * Copyright 2019 Andras Berkes [andras.berkes@programmer.net]<br>
+ * Based on Moleculer Framework for NodeJS [https://moleculer.services].
+ * <br><br>
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:<br>
+ * <br>
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.<br>
+ * <br>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package services.moleculer.web.common;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Predicate;
+import java.util.function.ToLongFunction;
+
+/**
+ * Cache limited by the total size (weight) and the number of the entries.
+ * Reads are lock-free. When the cache is full, a few entries are sampled, and
+ * the least recently used one of them is evicted (approximated LRU, without
+ * sorting the entries). Counts the hits, misses and evictions.
+ */
+public class WeightedCache<K, V> {
+
+	// --- PROPERTIES ---
+
+	protected final int maxEntries;
+
+	protected final long maxWeight;
+
+	protected final ToLongFunction<V> weigher;
+
+	/**
+	 * Number of entries compared per eviction.
+	 */
+	protected int samples = 8;
+
+	// --- ENTRIES ---
+
+	protected final ConcurrentHashMap<K, Entry<V>> map = new ConcurrentHashMap<>();
+
+	protected final AtomicLong weight = new AtomicLong();
+
+	protected static final class Entry<V> {
+
+		protected final V value;
+		protected final long weight;
+		protected volatile long lastAccess;
+
+		protected Entry(V value, long weight, long lastAccess) {
+			this.value = value;
+			this.weight = weight;
+			this.lastAccess = lastAccess;
+		}
+
+	}
+
+	// --- COUNTERS ---
+
+	protected final LongAdder hits = new LongAdder();
+	protected final LongAdder misses = new LongAdder();
+	protected final LongAdder evictions = new LongAdder();
+
+	// --- CONSTRUCTOR ---
+
+	public WeightedCache(int maxEntries, long maxWeight, ToLongFunction<V> weigher) {
+		this.maxEntries = maxEntries;
+		this.maxWeight = maxWeight;
+		this.weigher = weigher;
+	}
+
+	// --- GET / PUT / REMOVE ---
+
+	public V get(K key) {
+		Entry<V> entry = map.get(key);
+		if (entry == null) {
+			misses.increment();
+			return null;
+		}
+		hits.increment();
+		entry.lastAccess = nanoTime();
+		return entry.value;
+	}
+
+	/**
+	 * Stores (or re-weighs) a value. Values larger than the capacity of the
+	 * cache are not stored.
+	 * 
+	 * @param key
+	 *            key
+	 * @param value
+	 *            value
+	 */
+	public void put(K key, V value) {
+		long w = weigher.applyAsLong(value);
+		if (w > maxWeight) {
+			remove(key);
+			return;
+		}
+		Entry<V> entry = new Entry<>(value, w, nanoTime());
+		Entry<V> old = map.put(key, entry);
+		weight.addAndGet(old == null ? w : w - old.weight);
+		if (weight.get() > maxWeight || map.size() > maxEntries) {
+			evict();
+		}
+	}
+
+	/**
+	 * Re-weighs a value, if it is still in the cache (eg. after its size has
+	 * changed).
+	 * 
+	 * @param key
+	 *            key
+	 * @param value
+	 *            the cached value
+	 */
+	public void update(K key, V value) {
+		Entry<V> entry = map.get(key);
+		if (entry != null && entry.value == value) {
+			put(key, value);
+		}
+	}
+
+	/**
+	 * Removes a value.
+	 * 
+	 * @param key
+	 *            key
+	 * 
+	 * @return true if the key was in the cache
+	 */
+	public boolean remove(K key) {
+		Entry<V> old = map.remove(key);
+		if (old != null) {
+			weight.addAndGet(-old.weight);
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Removes the values of the matching keys.
+	 * 
+	 * @param filter
+	 *            key filter
+	 */
+	public void removeIf(Predicate<? super K> filter) {
+		for (K key : map.keySet()) {
+			if (filter.test(key)) {
+				remove(key);
+			}
+		}
+	}
+
+	public void clear() {
+		for (K key : map.keySet()) {
+			remove(key);
+		}
+	}
+
+	// --- EVICTION ---
+
+	/**
+	 * Position of the sampling (the next eviction continues with the
+	 * following entries).
+	 */
+	protected Iterator<Map.Entry<K, Entry<V>>> cursor;
+
+	/**
+	 * Removes entries until the cache is not full. Each evicted entry is the
+	 * least recently used one of the next "samples" entries.
+	 */
+	protected synchronized void evict() {
+		while (weight.get() > maxWeight || map.size() > maxEntries) {
+			K key = null;
+			Entry<V> victim = null;
+			for (int i = 0; i < samples; i++) {
+				if (cursor == null || !cursor.hasNext()) {
+					cursor = map.entrySet().iterator();
+					if (!cursor.hasNext()) {
+						return;
+					}
+				}
+				Map.Entry<K, Entry<V>> e = cursor.next();
+				Entry<V> entry = e.getValue();
+				if (victim == null || entry.lastAccess - victim.lastAccess < 0) {
+					key = e.getKey();
+					victim = entry;
+				}
+			}
+			if (map.remove(key, victim)) {
+				weight.addAndGet(-victim.weight);
+				evictions.increment();
+			}
+		}
+	}
+
+	/**
+	 * Returns the current value of the clock (can be overridden in tests).
+	 * 
+	 * @return current time, in nanoseconds
+	 */
+	protected long nanoTime() {
+		return System.nanoTime();
+	}
+
+	// --- STATISTICS ---
+
+	public long getHits() {
+		return hits.sum();
+	}
+
+	public long getMisses() {
+		return misses.sum();
+	}
+
+	public long getEvictions() {
+		return evictions.sum();
+	}
+
+	/**
+	 * Returns the total size (weight) of the cached entries.
+	 * 
+	 * @return total size
+	 */
+	public long getWeight() {
+		return weight.get();
+	}
+
+	public int size() {
+		return map.size();
+	}
+
+	public int getMaxEntries() {
+		return maxEntries;
+	}
+
+	public long getMaxWeight() {
+		return maxWeight;
+	}
+
+}
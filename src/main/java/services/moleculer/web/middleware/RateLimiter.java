@@ -46,6 +46,14 @@ import services.moleculer.web.middleware.limiter.RatingStoreFactory;
  * <pre>
  * route.use(new RateLimiter(100, true));
  * </pre>
+ * The default MemoryStoreFactory counts the requests in fixed windows. For
+ * smooth limits (without bursts at the window boundaries) use the lock-free
+ * GcraStoreFactory or TokenBucketStoreFactory:
+ * 
+ * <pre>
+ * RateLimiter limiter = new RateLimiter(100, true);
+ * limiter.setStoreFactory(new GcraStoreFactory());
+ * </pre>
  */
 @Name("Rate Limiter")
 public class RateLimiter extends HttpMiddleware implements HttpConstants {
@@ -182,7 +190,7 @@ public class RateLimiter extends HttpMiddleware implements HttpConstants {
 		// Create new middleware-layer
 		return new AbstractRequestProcessor(next) {
 
-			private RatingStore store = storeFactory.createStore(windowMillis);
+			private RatingStore store = storeFactory.createStore(config, windowMillis, actionLimit);
 
 			/**
 			 * Handles request of the HTTP client.
@@ -209,7 +217,7 @@ public class RateLimiter extends HttpMiddleware implements HttpConstants {
 
 				// Calculate remaining number of requests
 				long remaining = actionLimit - store.incrementAndGet(address);
-				if (remaining <= 0) {
+				if (remaining < 0) {
 
 					// Reject request, the limit is reached
 					// 429 = Rate limit exceeded
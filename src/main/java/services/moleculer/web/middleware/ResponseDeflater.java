@@ -25,6 +25,8 @@
  */
 package services.moleculer.web.middleware;
 
+import static services.moleculer.web.common.GatewayUtils.isCancelled;
+
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.util.Arrays;
@@ -32,6 +34,7 @@ import java.util.HashSet;
 import java.util.Objects;
 import java.util.Set;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.zip.CRC32;
 import java.util.zip.Deflater;
 import java.util.zip.DeflaterOutputStream;
 
@@ -43,16 +46,23 @@ import services.moleculer.service.Name;
 import services.moleculer.web.RequestProcessor;
 import services.moleculer.web.WebRequest;
 import services.moleculer.web.WebResponse;
+import services.moleculer.web.common.DeflaterPool;
 import services.moleculer.web.common.HttpConstants;
 
 /**
- * Compresses body of REST responses. Do not use it with ServeStatic middleware;
+ * Compresses body of REST responses (with "gzip" or "deflate" encoding,
+ * selected by the q-values of the "Accept-Encoding" header). Do not use it with ServeStatic middleware;
  * ServeStatic also compresses the data. Use it to compress the response of REST
  * services. Using this middleware reduces the performance, so use it only on
  * slow networks. Sample:
  * <pre>
  * restRoute.use(new ResponseDeflater(Deflater.BEST_SPEED));
  * </pre>
+ * The compressed content is streamed to the client: when the size of the
+ * uncompressed data reaches the "flushThreshold", the compressed bytes are
+ * flushed (using chunked transfer encoding, because the length of the
+ * compressed body is unknown). Responses smaller than the threshold are sent
+ * in one piece, with "Content-Length" header.
  */
 @Name("Response Deflater")
 public class ResponseDeflater extends HttpMiddleware implements HttpConstants {
@@ -65,6 +75,33 @@ public class ResponseDeflater extends HttpMiddleware implements HttpConstants {
 
 	protected int compressionLevel = Deflater.DEFAULT_COMPRESSION;
 	protected int bufferSize = 1024;
+
+	/**
+	 * The compressed data is flushed when the size of the uncompressed data
+	 * (since the previous flush) reaches this limit. Zero or negative value
+	 * means "buffer the whole body" (and send it with "Content-Length" header).
+	 */
+	protected int flushThreshold = 64 * 1024;
+
+	/**
+	 * Do not compress bodies smaller than this limit (in bytes).
+	 */
+	protected int compressAbove = 1024;
+
+	/**
+	 * Maximum number of idle (pooled) Deflaters per encoding.
+	 */
+	protected int poolSize = 64;
+
+	// --- POOLED DEFLATERS ---
+
+	protected DeflaterPool deflaterPool;
+	protected DeflaterPool gzipPool;
+
+	/**
+	 * Header of the GZIP format (without file name and modification time).
+	 */
+	protected static final byte[] GZIP_HEADER = { 0x1f, (byte) 0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, (byte) 0xff };
 	protected Set<String> compressedTypes = new HashSet<>(
 			Arrays.asList(new String[] { "image", "audio", "video", "gzip" }));
 
@@ -86,6 +123,10 @@ public class ResponseDeflater extends HttpMiddleware implements HttpConstants {
 
 	@Override
 	public RequestProcessor install(RequestProcessor next, Tree config) {
+		if (deflaterPool == null || deflaterPool.getLevel() != compressionLevel) {
+			deflaterPool = new DeflaterPool(compressionLevel, false, poolSize);
+			gzipPool = new DeflaterPool(compressionLevel, true, poolSize);
+		}
 		return new AbstractRequestProcessor(next) {
 
 			/**
@@ -106,21 +147,56 @@ public class ResponseDeflater extends HttpMiddleware implements HttpConstants {
 			public void service(WebRequest req, WebResponse rsp) throws Exception {
 
 				// Is compression supported by the client?
-				String acceptEncoding = req.getHeader(ACCEPT_ENCODING);
-				boolean compressionSupported = acceptEncoding != null && acceptEncoding.contains(DEFLATE);
+				String encoding = selectEncoding(req.getHeader(ACCEPT_ENCODING));
+				boolean compressionSupported = encoding != null;
 
 				// Already compressed?
 				AtomicBoolean alreadyCompressed = new AtomicBoolean();
 
-				// Compressor
-				ByteArrayOutputStream buffer = new ByteArrayOutputStream(bufferSize);
-				DeflaterOutputStream deflater = new DeflaterOutputStream(buffer, new Deflater(compressionLevel));
-
 				// Invoke next handler / action
 				next.service(req, new WebResponse() {
 
 					AtomicBoolean finished = new AtomicBoolean();
 
+					/**
+					 * Compress the body (decided at the first write).
+					 */
+					Boolean compress;
+
+					/**
+					 * "Content-Length" of the uncompressed body (sent only if
+					 * the body is not compressed).
+					 */
+					String contentLength;
+
+					/**
+					 * Uncompressed bytes (until the size of the body reaches
+					 * the "compressAbove" limit).
+					 */
+					ByteArrayOutputStream raw;
+
+					/**
+					 * Compressor (created at the "compressAbove" limit).
+					 */
+					ByteArrayOutputStream buffer;
+					Deflater deflater;
+					DeflaterOutputStream out;
+
+					/**
+					 * Checksum of the uncompressed data (in GZIP format).
+					 */
+					CRC32 crc;
+
+					/**
+					 * Uncompressed bytes since the last flush.
+					 */
+					int pending;
+
+					/**
+					 * Compressed data has already been sent.
+					 */
+					boolean streaming;
+
 					@Override
 					public final void setStatus(int code) {
 						rsp.setStatus(code);
@@ -133,9 +209,15 @@ public class ResponseDeflater extends HttpMiddleware implements HttpConstants {
 
 					@Override
 					public final void setHeader(String name, String value) {
+						if (compress == null && compressionSupported && CONTENT_LENGTH.equals(name)) {
+
+							// Length of the compressed body is not known yet
+							contentLength = value;
+							return;
+						}
 						rsp.setHeader(name, value);
-						if (compressionSupported && !alreadyCompressed.get()) {
-							if (CONTENT_ENCODING.equals(name) && (value.contains(DEFLATE) || value.contains(GZIP))) {
+						if (!alreadyCompressed.get()) {
+							if (CONTENT_ENCODING.equals(name)) {
 								alreadyCompressed.set(true);
 							} else if (CONTENT_TYPE.equals(name)) {
 								for (String part : compressedTypes) {
@@ -155,10 +237,43 @@ public class ResponseDeflater extends HttpMiddleware implements HttpConstants {
 
 					@Override
 					public final void send(byte[] bytes) throws IOException {
-						if (compressionSupported && !alreadyCompressed.get()) {
+						if (compress()) {
+							if (out == null) {
+
+								// Small body (do not compress yet)
+								if (raw == null) {
+									raw = new ByteArrayOutputStream(Math.max(bufferSize, bytes.length));
+								}
+								raw.write(bytes);
+								if (raw.size() < compressAbove) {
+									return;
+								}
+								bytes = raw.toByteArray();
+								raw = null;
+								startCompression();
+							}
 
 							// Compress bytes
-							deflater.write(bytes);
+							out.write(bytes);
+							if (crc != null) {
+								crc.update(bytes);
+							}
+							pending += bytes.length;
+							if (flushThreshold > 0 && pending >= flushThreshold) {
+
+								// Send the compressed chunk (with chunked
+								// transfer encoding)
+								pending = 0;
+								out.flush();
+								if (buffer.size() > 0) {
+									if (!streaming) {
+										streaming = true;
+										rsp.setHeader(CONTENT_ENCODING, encoding);
+									}
+									rsp.send(buffer.toByteArray());
+									buffer.reset();
+								}
+							}
 
 						} else {
 
@@ -172,19 +287,40 @@ public class ResponseDeflater extends HttpMiddleware implements HttpConstants {
 						if (finished.compareAndSet(false, true)) {
 							boolean ok;
 							try {
-								if (compressionSupported && !alreadyCompressed.get()) {
-
-									// Send compressed content
-									deflater.finish();
-									byte[] bytes = buffer.toByteArray();
-									rsp.setHeader(CONTENT_ENCODING, DEFLATE);
-									rsp.setHeader(CONTENT_LENGTH, Integer.toString(bytes.length));
-									rsp.send(bytes);
-
+								if (compress()) {
+									if (out == null) {
+
+										// Body is smaller than "compressAbove"
+										byte[] bytes = raw == null ? new byte[0] : raw.toByteArray();
+										rsp.setHeader(CONTENT_LENGTH, Integer.toString(bytes.length));
+										if (bytes.length > 0) {
+											rsp.send(bytes);
+										}
+
+									} else {
+
+										// Send compressed content (or the last
+										// chunk)
+										out.finish();
+										if (crc != null) {
+											writeIntLE(buffer, (int) crc.getValue());
+											writeIntLE(buffer, (int) deflater.getBytesRead());
+										}
+										byte[] bytes = buffer.toByteArray();
+										if (!streaming) {
+											rsp.setHeader(CONTENT_ENCODING, encoding);
+											rsp.setHeader(CONTENT_LENGTH, Integer.toString(bytes.length));
+										}
+										rsp.send(bytes);
+									}
 								}
 							} catch (Exception cause) {
 								logger.error("Unable to send compressed content!", cause);
 							} finally {
+								if (deflater != null) {
+									(crc == null ? deflaterPool : gzipPool).release(deflater);
+									deflater = null;
+								}
 								ok = rsp.end();
 							}
 							return ok;
@@ -192,6 +328,41 @@ public class ResponseDeflater extends HttpMiddleware implements HttpConstants {
 						return false;
 					}
 
+					protected final boolean compress() {
+						if (compress == null) {
+							if (!alreadyCompressed.get()) {
+								rsp.setHeader(VARY, ACCEPT_ENCODING);
+							}
+							compress = compressionSupported && !alreadyCompressed.get() && !isCancelled(rsp);
+							if (compress && contentLength != null) {
+								try {
+									if (Long.parseLong(contentLength) < compressAbove) {
+										compress = false;
+									}
+								} catch (NumberFormatException invalid) {
+
+									// Unknown length
+								}
+							}
+							if (!compress && contentLength != null) {
+								rsp.setHeader(CONTENT_LENGTH, contentLength);
+							}
+						}
+						return compress;
+					}
+
+					protected final void startCompression() throws IOException {
+						buffer = new ByteArrayOutputStream(bufferSize);
+						if (GZIP.equals(encoding)) {
+							deflater = gzipPool.acquire();
+							crc = new CRC32();
+							buffer.write(GZIP_HEADER);
+						} else {
+							deflater = deflaterPool.acquire();
+						}
+						out = new DeflaterOutputStream(buffer, deflater, bufferSize, true);
+					}
+
 					@Override
 					public final void setProperty(String name, Object value) {
 						rsp.setProperty(name, value);
@@ -213,6 +384,78 @@ public class ResponseDeflater extends HttpMiddleware implements HttpConstants {
 		};
 	}
 
+	// --- SELECT ENCODING ---
+
+	/**
+	 * Selects the content-coding from the "Accept-Encoding" header by the
+	 * q-values (GZIP is preferred at equal q-values).
+	 * 
+	 * @param acceptEncoding
+	 *            "Accept-Encoding" header (eg. "deflate, gzip;q=0.8")
+	 * 
+	 * @return "gzip", "deflate" or null (= do not compress)
+	 */
+	protected String selectEncoding(String acceptEncoding) {
+		if (acceptEncoding == null) {
+			return null;
+		}
+		double gzipQ = -1, deflateQ = -1, anyQ = 0;
+		for (String token : acceptEncoding.split(",")) {
+			String[] params = token.split(";");
+			String coding = params[0].trim().toLowerCase();
+			double q = 1;
+			for (int i = 1; i < params.length; i++) {
+				String param = params[i].trim();
+				if (param.startsWith("q=")) {
+					try {
+						q = Double.parseDouble(param.substring(2).trim());
+					} catch (NumberFormatException invalid) {
+						q = 0;
+					}
+				}
+			}
+			if (GZIP.equals(coding) || "x-gzip".equals(coding)) {
+				gzipQ = q;
+			} else if (DEFLATE.equals(coding)) {
+				deflateQ = q;
+			} else if ("*".equals(coding)) {
+				anyQ = q;
+			}
+		}
+		if (gzipQ < 0) {
+			gzipQ = anyQ;
+		}
+		if (deflateQ < 0) {
+			deflateQ = anyQ;
+		}
+		if (gzipQ > 0 && gzipQ >= deflateQ) {
+			return GZIP;
+		}
+		if (deflateQ > 0) {
+			return DEFLATE;
+		}
+		return null;
+	}
+
+	protected static final void writeIntLE(ByteArrayOutputStream out, int value) {
+		out.write(value);
+		out.write(value >> 8);
+		out.write(value >> 16);
+		out.write(value >> 24);
+	}
+
+	// --- STOP MIDDLEWARE ---
+
+	@Override
+	public void stopped() {
+		if (deflaterPool != null) {
+			deflaterPool.clear();
+		}
+		if (gzipPool != null) {
+			gzipPool.clear();
+		}
+	}
+
 	// --- DISABLE COMPRESSION ---
 
 	public ResponseDeflater addCompressedType(String compressedMimeTypePart) {
@@ -252,6 +495,51 @@ public class ResponseDeflater extends HttpMiddleware implements HttpConstants {
 		this.bufferSize = bufferSize;
 	}
 
+	/**
+	 * @return the flushThreshold
+	 */
+	public int getFlushThreshold() {
+		return flushThreshold;
+	}
+
+	/**
+	 * @param flushThreshold
+	 *            the flushThreshold to set
+	 */
+	public void setFlushThreshold(int flushThreshold) {
+		this.flushThreshold = flushThreshold;
+	}
+
+	/**
+	 * @return the compressAbove
+	 */
+	public int getCompressAbove() {
+		return compressAbove;
+	}
+
+	/**
+	 * @param compressAbove
+	 *            the compressAbove to set
+	 */
+	public void setCompressAbove(int compressAbove) {
+		this.compressAbove = compressAbove;
+	}
+
+	/**
+	 * @return the poolSize
+	 */
+	public int getPoolSize() {
+		return poolSize;
+	}
+
+	/**
+	 * @param poolSize
+	 *            the poolSize to set
+	 */
+	public void setPoolSize(int poolSize) {
+		this.poolSize = poolSize;
+	}
+
 	/**
 	 * @return the compressedTypes
 	 */
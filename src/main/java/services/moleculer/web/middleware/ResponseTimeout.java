@@ -26,16 +26,20 @@
 package services.moleculer.web.middleware;
 
 import static services.moleculer.web.common.GatewayUtils.getFileURL;
+import static services.moleculer.web.common.GatewayUtils.isCancelled;
+import static services.moleculer.web.common.GatewayUtils.isDisconnected;
 import static services.moleculer.web.common.GatewayUtils.readAllBytes;
 
 import java.io.IOException;
 import java.nio.charset.StandardCharsets;
-import java.util.concurrent.ScheduledExecutorService;
-import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.Executor;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 import io.datatree.Tree;
+import io.netty.util.HashedWheelTimer;
+import io.netty.util.Timeout;
+import io.netty.util.Timer;
 import services.moleculer.service.Name;
 import services.moleculer.util.FastBuildTree;
 import services.moleculer.web.RequestProcessor;
@@ -79,9 +83,34 @@ public class ResponseTimeout extends HttpMiddleware implements HttpConstants {
 	 */
 	protected String htmlTemplatePath;
 
-	// --- MOLECULER COMPONENTS ---
+	/**
+	 * Use the "timeout" of the route / action (eg. the "timeout" of the
+	 * CallOptions of the Route), if it is shorter than the default timeout.
+	 */
+	protected boolean useActionTimeouts = true;
+
+	/**
+	 * Duration of a tick of the timer wheel, in MILLISECONDS.
+	 */
+	protected long tickMillis = 10;
+
+	/**
+	 * Size of the timer wheel.
+	 */
+	protected int ticksPerWheel = 512;
+
+	// --- TIMER WHEEL ---
+
+	/**
+	 * Hashed wheel timer (O(1) scheduling and cancellation; the expired
+	 * timeouts are processed in batches, on every tick).
+	 */
+	protected volatile Timer timer;
 
-	protected ScheduledExecutorService scheduler;
+	/**
+	 * The middleware is stopped (the timer is not recreated).
+	 */
+	protected boolean stopped;
 
 	// --- MESSAGE CACHES ---
 
@@ -113,13 +142,21 @@ public class ResponseTimeout extends HttpMiddleware implements HttpConstants {
 
 	public void started(services.moleculer.ServiceBroker broker) throws Exception {
 		super.started(broker);
-		scheduler = broker.getConfig().getScheduler();
+		synchronized (this) {
+			stopped = false;
+		}
+		getTimer();
 	}
 
 	// --- CREATE NEW PROCESSOR ---
 
 	@Override
 	public RequestProcessor install(RequestProcessor next, Tree config) {
+
+		// Timeout of the route / action (eg. "timeout" of the CallOptions),
+		// if it is shorter (0 = disabled middleware)
+		long actionTimeout = useActionTimeouts && config != null ? config.get("timeout", 0L) : 0L;
+		long routeTimeout = actionTimeout > 0 && timeout > 0 ? Math.min(timeout, actionTimeout) : timeout;
 		return new AbstractRequestProcessor(next) {
 
 			/**
@@ -139,60 +176,35 @@ public class ResponseTimeout extends HttpMiddleware implements HttpConstants {
 			@Override
 			public void service(WebRequest req, WebResponse rsp) throws Exception {
 
-				// Start timer
-				ScheduledFuture<?> future = timeout > 0 ? scheduler.schedule(() -> {
-					try {
-
-						// Set 408 status
-						rsp.setStatus(status);
-
-						// Detect Accept-Encoding
-						String accept = req.getHeader(ACCEPT);
-						boolean sendJSON = accept != null && accept.contains("json");
-
-						// Load template
-						if (htmlTemplate == null && htmlTemplatePath != null) {
-							htmlTemplate = new String(readAllBytes(htmlTemplatePath), StandardCharsets.UTF_8);
-							refreshCaches();
-						}
-
-						// Create body
-						byte[] bytes;
-						if (sendJSON) {
-
-							// Response in JSON format
-							rsp.setHeader(CONTENT_TYPE, CONTENT_TYPE_JSON);
-							bytes = cachedJSON;
+				// Response finished (or timeouted)
+				AtomicBoolean finished = new AtomicBoolean();
 
+				// Start timer
+				Timer wheel = routeTimeout > 0 ? getTimer() : null;
+				Timeout future = wheel != null ? wheel.newTimeout(t -> {
+					if (finished.compareAndSet(false, true)) {
+						Executor executor = broker == null ? null : broker.getConfig().getExecutor();
+						if (executor == null) {
+							sendTimeout(req, rsp);
 						} else {
-
-							// Response in HTML format
-							rsp.setHeader(CONTENT_TYPE, CONTENT_TYPE_HTML);
-							bytes = cachedHTML;
-
+							executor.execute(() -> sendTimeout(req, rsp));
 						}
-
-						// Set Content-Length
-						rsp.setHeader(CONTENT_LENGTH, Integer.toString(bytes.length));
-
-						// Send message body
-						rsp.send(bytes);
-
-					} catch (Exception cause) {
-						logger.error("Unable to send timeout message to client!", cause);
-					} finally {
-						rsp.end();
 					}
-				}, timeout, TimeUnit.MILLISECONDS) : null;
+				}, routeTimeout, TimeUnit.MILLISECONDS) : null;
+
+				// Deadline of the response (for the ActionInvoker)
+				if (future != null) {
+					rsp.setProperty(PROPERTY_DEADLINE, System.currentTimeMillis() + routeTimeout);
+				}
 
 				// Invoke next handler / action
 				next.service(req, new WebResponse() {
 
-					AtomicBoolean finished = new AtomicBoolean();
-
 					@Override
 					public final void setStatus(int code) {
-						rsp.setStatus(code);
+						if (!finished.get()) {
+							rsp.setStatus(code);
+						}
 					}
 
 					@Override
@@ -202,7 +214,9 @@ public class ResponseTimeout extends HttpMiddleware implements HttpConstants {
 
 					@Override
 					public final void setHeader(String name, String value) {
-						rsp.setHeader(name, value);
+						if (!finished.get()) {
+							rsp.setHeader(name, value);
+						}
 					}
 
 					@Override
@@ -212,14 +226,22 @@ public class ResponseTimeout extends HttpMiddleware implements HttpConstants {
 
 					@Override
 					public final void send(byte[] bytes) throws IOException {
-						rsp.send(bytes);
+						if (!finished.get()) {
+							rsp.send(bytes);
+						}
 					}
 
 					@Override
 					public final boolean end() {
 						if (finished.compareAndSet(false, true)) {
 							if (future != null) {
-								future.cancel(false);
+								future.cancel();
+							}
+							if (future != null && isCancelled(rsp) && !isDisconnected(rsp)) {
+
+								// The action was not called (deadline passed)
+								sendTimeout(req, rsp);
+								return true;
 							}
 							return rsp.end();
 						}
@@ -246,6 +268,94 @@ public class ResponseTimeout extends HttpMiddleware implements HttpConstants {
 		};
 	}
 
+	// --- SEND TIMEOUT MESSAGE ---
+
+	protected void sendTimeout(WebRequest req, WebResponse rsp) {
+		try {
+
+			// Set 408 status
+			rsp.setStatus(status);
+
+			// Detect Accept-Encoding
+			String accept = req.getHeader(ACCEPT);
+			boolean sendJSON = accept != null && accept.contains("json");
+
+			// Load template
+			if (htmlTemplate == null && htmlTemplatePath != null) {
+				htmlTemplate = new String(readAllBytes(htmlTemplatePath), StandardCharsets.UTF_8);
+				refreshCaches();
+			}
+
+			// Create body
+			byte[] bytes;
+			if (sendJSON) {
+
+				// Response in JSON format
+				rsp.setHeader(CONTENT_TYPE, CONTENT_TYPE_JSON);
+				bytes = cachedJSON;
+
+			} else {
+
+				// Response in HTML format
+				rsp.setHeader(CONTENT_TYPE, CONTENT_TYPE_HTML);
+				bytes = cachedHTML;
+
+			}
+
+			// Set Content-Length
+			rsp.setHeader(CONTENT_LENGTH, Integer.toString(bytes.length));
+
+			// Send message body
+			rsp.send(bytes);
+
+		} catch (Exception cause) {
+			logger.error("Unable to send timeout message to client!", cause);
+		} finally {
+			rsp.end();
+		}
+	}
+
+	// --- TIMER ---
+
+	/**
+	 * Returns the timer wheel (it is created on first use).
+	 * 
+	 * @return timer, or null if the middleware is stopped
+	 */
+	protected Timer getTimer() {
+		Timer t = timer;
+		if (t == null) {
+			synchronized (this) {
+				t = timer;
+				if (t == null && !stopped) {
+					t = new HashedWheelTimer(runnable -> {
+						Thread thread = new Thread(runnable, "ResponseTimeout Timer");
+						thread.setDaemon(true);
+						return thread;
+					}, tickMillis, TimeUnit.MILLISECONDS, ticksPerWheel);
+					timer = t;
+				}
+			}
+		}
+		return t;
+	}
+
+	// --- STOP MIDDLEWARE ---
+
+	@Override
+	public void stopped() {
+		super.stopped();
+		Timer t;
+		synchronized (this) {
+			stopped = true;
+			t = timer;
+			timer = null;
+		}
+		if (t != null) {
+			t.stop();
+		}
+	}
+
 	// --- REFRESH CACHED MESSAGES ---
 
 	protected void refreshCaches() {
@@ -267,6 +377,30 @@ public class ResponseTimeout extends HttpMiddleware implements HttpConstants {
 		this.timeout = timeout;
 	}
 
+	public boolean isUseActionTimeouts() {
+		return useActionTimeouts;
+	}
+
+	public void setUseActionTimeouts(boolean useActionTimeouts) {
+		this.useActionTimeouts = useActionTimeouts;
+	}
+
+	public long getTickMillis() {
+		return tickMillis;
+	}
+
+	public void setTickMillis(long tickMillis) {
+		this.tickMillis = tickMillis;
+	}
+
+	public int getTicksPerWheel() {
+		return ticksPerWheel;
+	}
+
+	public void setTicksPerWheel(int ticksPerWheel) {
+		this.ticksPerWheel = ticksPerWheel;
+	}
+
 	/**
 	 * @return the htmlTemplate
 	 */
@@ -25,40 +25,71 @@
  */
 package services.moleculer.web.middleware;
 
-import static services.moleculer.util.CommonUtils.compress;
 import static services.moleculer.util.CommonUtils.formatPath;
 import static services.moleculer.web.common.GatewayUtils.getFileSize;
 import static services.moleculer.web.common.GatewayUtils.getFileURL;
 import static services.moleculer.web.common.GatewayUtils.getLastModifiedTime;
+import static services.moleculer.web.common.GatewayUtils.getLocalFile;
 import static services.moleculer.web.common.GatewayUtils.isReadable;
 import static services.moleculer.web.common.GatewayUtils.readAllBytes;
 import static services.moleculer.web.common.GatewayUtils.sendError;
 
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.net.URL;
+import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystemNotFoundException;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.BooleanSupplier;
+import java.util.regex.Pattern;
 import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
 
 import io.datatree.Tree;
-import io.datatree.dom.Cache;
 import io.netty.channel.Channel;
 import io.netty.channel.ChannelHandlerContext;
-import io.netty.channel.ChannelOutboundBuffer;
-import io.netty.channel.ChannelPipeline;
 import services.moleculer.service.Name;
 import services.moleculer.stream.PacketStream;
 import services.moleculer.web.RequestProcessor;
 import services.moleculer.web.WebRequest;
 import services.moleculer.web.WebResponse;
 import services.moleculer.web.common.HttpConstants;
+import services.moleculer.web.common.RangeInputStream;
+import services.moleculer.web.common.WeightedCache;
 import services.moleculer.web.netty.NettyWebResponse;
 
 /**
  * Service to serve files from within a given root directory. When a file is not
- * found, instead of sending a 404 response. Supports content compression,
- * automatic "Content-Type" detection, and ETAGs. Sample:
+ * found, instead of sending a 404 response. Supports content compression
+ * (with precompressed ".gz" and ".br" files), automatic "Content-Type"
+ * detection, ETAGs and range requests. Sample:
  * <pre>
  * ServeStatic staticHandler = new ServeStatic("/", "/www");
  * staticHandler.setEnableReloading(true) // During the development
@@ -97,11 +128,56 @@ public class ServeStatic extends HttpMiddleware implements HttpConstants {
 	 */
 	protected boolean enableReloading = true;
 
+	/**
+	 * Watch the local directory for changes (with a WatchService), and
+	 * invalidate the cached files by the file system events. In this mode
+	 * the cached files are served without accessing the file system (the
+	 * "enableReloading" and "cacheDelay" properties are not used). Works
+	 * only if the local directory is in the file system (not in a JAR).
+	 */
+	protected boolean watchForChanges;
+
+	/**
+	 * Immutable mode for production: load all files (up to
+	 * "maxCachedFileSize") at startup, with content-hash ETags and
+	 * compressed variants. The preloaded files are served without accessing
+	 * the file system (changes of these files are ignored).
+	 */
+	protected boolean preload;
+
+	/**
+	 * Preloaded files with fingerprinted names (matching this regular
+	 * expression, eg. "app.3f2a9c1d.js" or "index-B4x9kQ2z.css") are sent
+	 * with the "immutableCacheControl" header.
+	 */
+	protected String immutablePattern = "[.-](?=[a-zA-Z_-]*[0-9])[a-zA-Z0-9_-]{8,}\\.[a-zA-Z0-9]+$";
+
+	/**
+	 * "Cache-Control" header of the fingerprinted files.
+	 */
+	protected String immutableCacheControl = "public, max-age=31536000, immutable";
+
 	/**
 	 * Maximum number of cached files
 	 */
 	protected int numberOfCachedFiles = 1024;
 
+	/**
+	 * Maximum total size of the cached files, including the compressed
+	 * variants (BYTES). The least recently used files are evicted.
+	 */
+	protected long maxCacheSize = 64L * 1024 * 1024;
+
+	/**
+	 * Store the cached files in direct (off-heap) buffers. The Netty
+	 * connector writes these buffers without copying. Evicted direct buffers
+	 * are only released by the garbage collector, so the off-heap memory
+	 * usage may exceed the "maxCacheSize" (up to the JVM's
+	 * "-XX:MaxDirectMemorySize" limit). Disabled by default (the files are
+	 * cached in heap buffers).
+	 */
+	protected boolean offHeap;
+
 	/**
 	 * Do not reload cache until... (MILLISECONDS)
 	 */
@@ -118,15 +194,22 @@ public class ServeStatic extends HttpMiddleware implements HttpConstants {
 	protected boolean useETags = true;
 
 	/**
-	 * Compress key and/or value above this size (BYTES), 0 = disable
-	 * compression
+	 * Compress files above this size (BYTES), 0 = disable compression. The
+	 * gzip variants of the cached files are created in the background.
 	 */
 	protected int compressAbove = 1024;
 
 	/**
-	 * Compression level (best speed = 1, best compression = 9).
+	 * Compression level of the gzip variants (best speed = 1, best
+	 * compression = 9).
+	 */
+	protected int compressionLevel = Deflater.BEST_COMPRESSION;
+
+	/**
+	 * Use the precompressed siblings of the files, if they exist (eg.
+	 * "app.js.gz" and "app.js.br" for "app.js").
 	 */
-	protected int compressionLevel = Deflater.BEST_SPEED;
+	protected boolean precompressed = true;
 
 	/**
 	 * Size of packets.
@@ -138,14 +221,48 @@ public class ServeStatic extends HttpMiddleware implements HttpConstants {
 	 * Threads will get some CPU-time.
 	 */
 	protected long packetDelay = 20;
+
+	/**
+	 * Enable range requests ("206 Partial Content" responses).
+	 */
+	protected boolean enableRanges = true;
+
+	/**
+	 * Maximum number of ranges in a "Range" header (the full content is sent
+	 * if the client requests more ranges).
+	 */
+	protected int maxRanges = 16;
 		
 	// --- CONTENT TYPES ---
 
 	protected final HashMap<String, String> contentTypes = new HashMap<>();
 
+	// --- DIRECTORY WATCHER ---
+
+	protected volatile WatchService watchService;
+
+	// --- PRELOADED FILES ---
+
+	protected volatile Map<String, CachedFile> manifest;
+
 	// --- CACHES ---
 
-	protected Cache<String, CachedFile> fileCache;
+	protected WeightedCache<String, CachedFile> fileCache;
+
+	/**
+	 * Precompressed siblings of the large (non-cached) files, as bit flags
+	 * (VARIANT_GZIP, VARIANT_BROTLI), keyed by the relative path.
+	 */
+	protected final ConcurrentHashMap<String, Integer> largeFileVariants = new ConcurrentHashMap<>();
+
+	/**
+	 * Number of invalidations (by the file system events). Files read before
+	 * an invalidation are not kept in the caches.
+	 */
+	protected final AtomicLong generation = new AtomicLong();
+
+	protected static final int VARIANT_GZIP = 1;
+	protected static final int VARIANT_BROTLI = 2;
 
 	protected static final class CachedFile {
 
@@ -153,8 +270,17 @@ public class ServeStatic extends HttpMiddleware implements HttpConstants {
 		protected long time;
 		protected String etag;
 
-		protected byte[] body;
-		protected byte[] compressedBody;
+		protected ByteBuffer body;
+		protected volatile ByteBuffer gzipBody;
+		protected ByteBuffer brotliBody;
+
+		protected boolean immutable;
+
+		protected long size() {
+			ByteBuffer gzip = gzipBody;
+			return body.capacity() + (gzip == null ? 0 : gzip.capacity())
+					+ (brotliBody == null ? 0 : brotliBody.capacity());
+		}
 
 	}
 
@@ -182,7 +308,13 @@ public class ServeStatic extends HttpMiddleware implements HttpConstants {
 	public void started(services.moleculer.ServiceBroker broker) throws Exception {
 		super.started(broker);
 		if (fileCache == null) {
-			fileCache = new Cache<>(numberOfCachedFiles);
+			fileCache = createCache();
+		}
+		if (preload && manifest == null) {
+			preloadFiles();
+		}
+		if (watchForChanges && watchService == null) {
+			startWatcher();
 		}
 	}
 
@@ -193,7 +325,7 @@ public class ServeStatic extends HttpMiddleware implements HttpConstants {
 		
 		// Init cache
 		if (fileCache == null) {
-			fileCache = new Cache<>(numberOfCachedFiles);
+			fileCache = createCache();
 		}
 		
 		return new AbstractRequestProcessor(next) {
@@ -241,13 +373,24 @@ public class ServeStatic extends HttpMiddleware implements HttpConstants {
 					}
 
 					// Absolute path
-					String absolutePath = formattedLocalDirectory + formatPath(relativePath);
-
-					// Get file from cache
-					CachedFile cached = fileCache.get(relativePath);
+					relativePath = formatPath(relativePath);
+					String absolutePath = formattedLocalDirectory + relativePath;
+
+					// Get file from the preloaded files or from the cache
+					Map<String, CachedFile> files = manifest;
+					CachedFile cached = files == null ? null : files.get(relativePath);
+					boolean preloaded = cached != null;
+					if (preloaded) {
+						if (cached.immutable) {
+							rsp.setHeader(CACHE_CONTROL, immutableCacheControl);
+						}
+					} else {
+						cached = fileCache.get(relativePath);
+					}
 					long now = System.currentTimeMillis();
+					long readGeneration = generation.get();
 					boolean reload;
-					if (cached != null && now - cached.lastChecked < cacheDelay) {
+					if (cached != null && (preloaded || watchService != null || now - cached.lastChecked < cacheDelay)) {
 						reload = false;
 					} else {
 						reload = enableReloading;
@@ -281,12 +424,17 @@ public class ServeStatic extends HttpMiddleware implements HttpConstants {
 						etag = cached.etag;
 					}
 					if (etag != null) {
-						if (ifNoneMatch != null && ifNoneMatch.equals(etag) && (reload || cached != null)) {
+						String matched = null;
+						if (ifNoneMatch != null && (reload || cached != null)) {
+							matched = findETag(ifNoneMatch, etag);
+						}
+						if (matched != null) {
 
-							// 304 Not Modified
+							// 304 Not Modified (without body and
+							// "Content-Length")
 							try {
 								rsp.setStatus(304);
-								rsp.setHeader(CONTENT_LENGTH, "0");
+								rsp.setHeader(ETAG, quote(matched));
 							} finally {
 								rsp.end();
 							}
@@ -295,7 +443,21 @@ public class ServeStatic extends HttpMiddleware implements HttpConstants {
 						} else {
 
 							// Send ETag header
-							rsp.setHeader(ETAG, etag);
+							rsp.setHeader(ETAG, quote(etag));
+						}
+					}
+
+					// Range request (ignored if the "If-Range" validator does
+					// not match the current ETag)
+					String range = null;
+					if (enableRanges) {
+						rsp.setHeader(ACCEPT_RANGES, BYTES);
+						range = req.getHeader(RANGE);
+						if (range != null) {
+							String ifRange = req.getHeader(IF_RANGE);
+							if (ifRange != null && !matchesETag(ifRange, etag)) {
+								range = null;
+							}
 						}
 					}
 
@@ -312,27 +474,15 @@ public class ServeStatic extends HttpMiddleware implements HttpConstants {
 					// Set "Content-Type" header
 					rsp.setHeader(CONTENT_TYPE, contentType);
 					
-					// Does the client support compressed content?
-					boolean compressionSupported = false;
-					if (compressAbove > 0) {
-						String acceptEncoding = req.getHeader(ACCEPT_ENCODING);
-						compressionSupported = acceptEncoding != null && acceptEncoding.contains(DEFLATE);
-					}
+					// Supported encodings (eg. "br, gzip;q=0.8")
+					String acceptEncoding = req.getHeader(ACCEPT_ENCODING);
+					rsp.setHeader(VARY, ACCEPT_ENCODING);
 
 					// Set body
 					if (cached != null && (!reload || (cached.etag != null && cached.etag.equals(etag)))) {
 
 						// Set cached content
-						if (!compressionSupported || cached.compressedBody == null) {
-							rsp.setHeader(CONTENT_LENGTH, Integer.toString(cached.body.length));
-							rsp.send(cached.body);
-						} else {
-
-							// Client supports compressed content
-							rsp.setHeader(CONTENT_ENCODING, DEFLATE);
-							rsp.setHeader(CONTENT_LENGTH, Integer.toString(cached.compressedBody.length));
-							rsp.send(cached.compressedBody);
-						}
+						sendCachedFile(rsp, cached, acceptEncoding, range, contentType);
 
 					} else {
 
@@ -356,31 +506,69 @@ public class ServeStatic extends HttpMiddleware implements HttpConstants {
 							cached = new CachedFile();
 							cached.lastChecked = now;
 							cached.etag = etag;
-							cached.body = body;
-							if (compressAbove > 0 && body.length > compressAbove && contentType.startsWith("text")) {
-								cached.compressedBody = compress(body, compressionLevel);
-								if (compressionSupported) {
-
-									// Client supports compressed content
-									rsp.setHeader(CONTENT_ENCODING, DEFLATE);
-									body = cached.compressedBody;
-								}
+							cached.body = toBuffer(body);
+							if (precompressed) {
+								cached.gzipBody = readSibling(absolutePath, GZIP);
+								cached.brotliBody = readSibling(absolutePath, BROTLI);
 							}
 							fileCache.put(relativePath, cached);
-							
-							// Add "Content-Length" header
-							rsp.setHeader(CONTENT_LENGTH, Integer.toString(body.length));
+							if (generation.get() != readGeneration) {
+
+								// File changed during reading
+								fileCache.remove(relativePath);
+							}
+							if (cached.gzipBody == null && compressAbove > 0 && body.length > compressAbove
+									&& isCompressible(contentType)) {
+								compressInBackground(relativePath, cached, body);
+							}
 
-							// Send bytes
-							rsp.send(body);
+							// Send content
+							sendCachedFile(rsp, cached, acceptEncoding, range, contentType);
 
 						} else {
-							
-							// Add "Content-Length" header
-							if (size > -1) {
+
+							// Precompressed sibling of a large file
+							if (precompressed && range == null) {
+								int variants = getLargeFileVariants(relativePath, absolutePath);
+								String encoding = selectEncoding(acceptEncoding, (variants & VARIANT_BROTLI) != 0,
+										(variants & VARIANT_GZIP) != 0);
+								if (encoding != null) {
+									absolutePath += BROTLI.equals(encoding) ? ".br" : ".gz";
+									size = getFileSize(absolutePath);
+									rsp.setHeader(CONTENT_ENCODING, encoding);
+									if (etag != null) {
+										rsp.setHeader(ETAG, quote(etag + '-' + encoding));
+									}
+								}
+							}
+
+							// Requested ranges
+							long[][] ranges = range == null || size < 0 ? null : parseRanges(range, size);
+							byte[][] parts = null;
+							if (ranges != null) {
+								if (ranges.length == 0) {
+									sendRangeNotSatisfiable(rsp, size);
+									rsp.end();
+									return;
+								}
+								parts = setRangeHeaders(rsp, ranges, size, contentType);
+							}
+
+							// Send local file directly from the channel (without
+							// copying it through the heap)
+							if (size > -1 && rsp instanceof NettyWebResponse && (ranges == null || ranges.length == 1)) {
+								File file = getLocalFile(absolutePath);
+								long offset = ranges == null ? 0 : ranges[0][0];
+								long length = ranges == null ? size : ranges[0][1] - offset + 1;
+								if (file != null && ((NettyWebResponse) rsp).sendFile(file, offset, length)) {
+									return;
+								}
+							}
+
+							// Add "Content-Length" header (if the size is unknown,
+							// the server chooses the framing, eg. chunked encoding)
+							if (size > -1 && ranges == null) {
 								rsp.setHeader(CONTENT_LENGTH, Long.toString(size));
-							} else {
-								rsp.setHeader(TRANSFER_ENCODING, CHUNKED);
 							}
 
 							// Create stream
@@ -398,43 +586,32 @@ public class ServeStatic extends HttpMiddleware implements HttpConstants {
 							stream.setPacketDelay(packetDelay);
 							stream.setPacketSize(packetSize);
 							
+							// Pause reading while the channel is not writable
 							BooleanSupplier blocker = null;
 							if (rsp instanceof NettyWebResponse) {
 								ChannelHandlerContext ctx = (ChannelHandlerContext) ((NettyWebResponse) rsp).getInternalObject();
-								ChannelPipeline pipeline = ctx.pipeline();
-								Channel channel = pipeline.channel();
-								ChannelOutboundBuffer out = channel.unsafe().outboundBuffer();
-								final long limit = max * 16;
-								blocker = () -> {
-									long count = out.totalPendingWriteBytes();
-									if (count < 0 || count > Integer.MAX_VALUE) {
-										return false;
-									}
-									return count > limit;
-								};
+								Channel channel = ctx.channel();
+								blocker = () -> !channel.isWritable();
 							}
 							
 							stream.onPacket((bytes, cause, close) -> {
 								if (bytes != null) {
-									if (size > -1) {
-										rsp.send(bytes);
-									} else {
-										rsp.send(Integer.toString(bytes.length).getBytes(StandardCharsets.US_ASCII));
-										rsp.send("\r\n".getBytes(StandardCharsets.US_ASCII));
-										rsp.send(bytes);
-										rsp.send("\r\n".getBytes(StandardCharsets.US_ASCII));
-									}
+									rsp.send(bytes);
 								}
 								if (close) {
-									if (size == -1) {
-										rsp.send("0\r\n\r\n".getBytes(StandardCharsets.US_ASCII));
-									}
 									rsp.end();
 								}
 							});
 							
 							// Transfer data
-							stream.transferFrom(getFileURL(absolutePath).openStream(), blocker).catchError(err -> {
+							InputStream in = getFileURL(absolutePath).openStream();
+							if (parts != null) {
+								in = new RangeInputStream(in, ranges, Arrays.copyOf(parts, ranges.length),
+										parts[ranges.length]);
+							} else if (ranges != null) {
+								in = new RangeInputStream(in, ranges);
+							}
+							stream.transferFrom(in, blocker).catchError(err -> {
 								logger.warn("Unable stream file!", err);
 							}).then(finished -> {
 								if (scheduler != null) {
@@ -456,12 +633,627 @@ public class ServeStatic extends HttpMiddleware implements HttpConstants {
 		};
 	}
 
+	// --- COMPRESSED VARIANTS ---
+
+	protected void sendCachedFile(WebResponse rsp, CachedFile cached, String acceptEncoding, String range,
+			String contentType) throws Exception {
+
+		// Send the requested ranges (of the uncompressed content)
+		long[][] ranges = range == null ? null : parseRanges(range, cached.body.capacity());
+		if (ranges != null) {
+			sendRanges(rsp, cached.body, ranges, contentType);
+			return;
+		}
+
+		// Select the best variant
+		ByteBuffer body = cached.body;
+		ByteBuffer gzipBody = cached.gzipBody;
+		ByteBuffer brotliBody = cached.brotliBody;
+		String encoding = selectEncoding(acceptEncoding, brotliBody != null, gzipBody != null);
+		if (encoding != null) {
+			body = BROTLI.equals(encoding) ? brotliBody : gzipBody;
+			rsp.setHeader(CONTENT_ENCODING, encoding);
+			if (cached.etag != null) {
+				rsp.setHeader(ETAG, quote(cached.etag + '-' + encoding));
+			}
+		}
+		rsp.setHeader(CONTENT_LENGTH, Integer.toString(body.capacity()));
+		send(rsp, body);
+	}
+
+	/**
+	 * Sends a cached buffer. Netty responses write the buffer without copying
+	 * (other connectors get a copy of an off-heap buffer).
+	 */
+	protected void send(WebResponse rsp, ByteBuffer body) throws Exception {
+		if (rsp instanceof NettyWebResponse && ((NettyWebResponse) rsp).sendBuffer(body.duplicate())) {
+			return;
+		}
+		if (body.hasArray() && body.arrayOffset() == 0 && body.array().length == body.capacity()) {
+			rsp.send(body.array());
+			return;
+		}
+		byte[] bytes = new byte[body.capacity()];
+		body.duplicate().get(bytes);
+		rsp.send(bytes);
+	}
+
+	protected ByteBuffer toBuffer(byte[] bytes) {
+		if (!offHeap) {
+			return ByteBuffer.wrap(bytes);
+		}
+		ByteBuffer buffer = ByteBuffer.allocateDirect(bytes.length);
+		buffer.put(bytes);
+		buffer.flip();
+		return buffer;
+	}
+
+	protected WeightedCache<String, CachedFile> createCache() {
+		return new WeightedCache<>(numberOfCachedFiles, maxCacheSize, CachedFile::size);
+	}
+
+	/**
+	 * Selects the content encoding by the q-values of the "Accept-Encoding"
+	 * header (brotli is preferred if the q-values are equal).
+	 * 
+	 * @param acceptEncoding
+	 *            value of the "Accept-Encoding" header (eg. "br;q=1.0,
+	 *            gzip;q=0.8, *;q=0.1")
+	 * @param brotli
+	 *            brotli variant is available
+	 * @param gzip
+	 *            gzip variant is available
+	 * 
+	 * @return "br", "gzip" or null (send the uncompressed content)
+	 */
+	protected String selectEncoding(String acceptEncoding, boolean brotli, boolean gzip) {
+		if (acceptEncoding == null || (!brotli && !gzip)) {
+			return null;
+		}
+		double brotliQ = -1, gzipQ = -1, anyQ = 0;
+		for (String token : acceptEncoding.split(",")) {
+			String[] params = token.split(";");
+			String coding = params[0].trim().toLowerCase();
+			double q = 1;
+			for (int i = 1; i < params.length; i++) {
+				String param = params[i].trim();
+				if (param.startsWith("q=")) {
+					try {
+						q = Double.parseDouble(param.substring(2).trim());
+					} catch (NumberFormatException invalid) {
+						q = 0;
+					}
+				}
+			}
+			if (BROTLI.equals(coding)) {
+				brotliQ = q;
+			} else if (GZIP.equals(coding) || "x-gzip".equals(coding)) {
+				gzipQ = q;
+			} else if ("*".equals(coding)) {
+				anyQ = q;
+			}
+		}
+		if (brotliQ < 0) {
+			brotliQ = anyQ;
+		}
+		if (gzipQ < 0) {
+			gzipQ = anyQ;
+		}
+		if (brotli && brotliQ > 0 && (!gzip || brotliQ >= gzipQ)) {
+			return BROTLI;
+		}
+		if (gzip && gzipQ > 0) {
+			return GZIP;
+		}
+		return null;
+	}
+
+	protected boolean isCompressible(String contentType) {
+		return contentType.startsWith("text/") || contentType.contains("javascript") || contentType.contains("json")
+				|| contentType.contains("xml") || contentType.contains("font");
+	}
+
+	/**
+	 * Returns the precompressed siblings of a large file. The result is
+	 * recorded, and it is only checked again when the watcher reports a
+	 * change, or on every request in the "enableReloading" mode (without a
+	 * watcher).
+	 * 
+	 * @param relativePath
+	 *            path of the file (relative to the local directory)
+	 * @param absolutePath
+	 *            absolute path of the file
+	 * 
+	 * @return bit flags (VARIANT_GZIP, VARIANT_BROTLI)
+	 */
+	protected int getLargeFileVariants(String relativePath, String absolutePath) {
+		boolean record = watchService != null || !enableReloading;
+		if (record) {
+			Integer variants = largeFileVariants.get(relativePath);
+			if (variants != null) {
+				return variants;
+			}
+		}
+		long readGeneration = generation.get();
+		int variants = (isReadable(absolutePath + ".gz") ? VARIANT_GZIP : 0)
+				| (isReadable(absolutePath + ".br") ? VARIANT_BROTLI : 0);
+		if (record) {
+			largeFileVariants.put(relativePath, variants);
+			if (generation.get() != readGeneration) {
+
+				// Files changed during checking
+				largeFileVariants.remove(relativePath, variants);
+			}
+		}
+		return variants;
+	}
+
+	protected ByteBuffer readSibling(String absolutePath, String encoding) {
+		String path = absolutePath + (BROTLI.equals(encoding) ? ".br" : ".gz");
+		if (isReadable(path)) {
+			byte[] bytes = readAllBytes(path);
+			if (bytes.length > 0) {
+				return toBuffer(bytes);
+			}
+		}
+		return null;
+	}
+
+	protected void compressInBackground(String relativePath, CachedFile cached, byte[] body) {
+		Runnable task = () -> {
+			try {
+				byte[] compressed = gzip(body, compressionLevel);
+				if (compressed.length < body.length) {
+					cached.gzipBody = toBuffer(compressed);
+
+					// Update the size of the entry
+					WeightedCache<String, CachedFile> cache = fileCache;
+					if (cache != null) {
+						cache.update(relativePath, cached);
+					}
+				}
+			} catch (Exception cause) {
+				logger.warn("Unable to compress file!", cause);
+			}
+		};
+		Executor executor = broker == null ? null : broker.getConfig().getExecutor();
+		if (executor == null) {
+			task.run();
+		} else {
+			executor.execute(task);
+		}
+	}
+
+	protected static byte[] gzip(byte[] bytes, int level) throws Exception {
+		ByteArrayOutputStream out = new ByteArrayOutputStream(bytes.length / 2);
+		GZIPOutputStream gzip = new GZIPOutputStream(out) {
+			{
+				def.setLevel(level);
+			}
+		};
+		gzip.write(bytes);
+		gzip.close();
+		return out.toByteArray();
+	}
+
+	// --- RANGE REQUESTS ---
+
+	/**
+	 * Parses the value of a "Range" header.
+	 * 
+	 * @param range
+	 *            value of the "Range" header (eg. "bytes=0-499,1000-")
+	 * @param size
+	 *            length of the content
+	 * 
+	 * @return sorted and merged ranges (positions of the first and last
+	 *         bytes), an empty array if none of the ranges are satisfiable, or
+	 *         null if the header is invalid (the full content must be sent)
+	 */
+	protected long[][] parseRanges(String range, long size) {
+		if (!range.startsWith(BYTES + '=')) {
+			return null;
+		}
+		String[] specs = range.substring(BYTES.length() + 1).split(",");
+		if (specs.length > maxRanges) {
+			return null;
+		}
+		ArrayList<long[]> list = new ArrayList<>(specs.length);
+		try {
+			for (String spec : specs) {
+				spec = spec.trim();
+				int i = spec.indexOf('-');
+				if (i == -1) {
+					return null;
+				}
+				long start, end;
+				if (i == 0) {
+
+					// Suffix range (last N bytes)
+					long length = Long.parseLong(spec.substring(1));
+					start = Math.max(0, size - length);
+					end = size - 1;
+					if (length == 0) {
+						continue;
+					}
+				} else {
+					start = Long.parseLong(spec.substring(0, i).trim());
+					String last = spec.substring(i + 1).trim();
+					if (last.isEmpty()) {
+						end = size - 1;
+					} else {
+						end = Long.parseLong(last);
+						if (end < start) {
+							return null;
+						}
+						end = Math.min(end, size - 1);
+					}
+				}
+				if (start < size) {
+					list.add(new long[] { start, end });
+				}
+			}
+		} catch (NumberFormatException invalid) {
+			return null;
+		}
+
+		// Sort and merge overlapping (or adjacent) ranges
+		list.sort((r1, r2) -> Long.compare(r1[0], r2[0]));
+		ArrayList<long[]> merged = new ArrayList<>(list.size());
+		long[] previous = null;
+		for (long[] r : list) {
+			if (previous != null && r[0] <= previous[1] + 1) {
+				previous[1] = Math.max(previous[1], r[1]);
+			} else {
+				merged.add(r);
+				previous = r;
+			}
+		}
+		return merged.toArray(new long[merged.size()][]);
+	}
+
+	/**
+	 * Sets the status code and the headers of a "206 Partial Content"
+	 * response. If there are more ranges, the body is a
+	 * "multipart/byteranges" message.
+	 * 
+	 * @return null (one range) or the headers of the parts and the closing
+	 *         boundary (more ranges)
+	 */
+	protected byte[][] setRangeHeaders(WebResponse rsp, long[][] ranges, long size, String contentType) {
+		rsp.setStatus(206);
+		if (ranges.length == 1) {
+			rsp.setHeader(CONTENT_RANGE, BYTES + ' ' + ranges[0][0] + '-' + ranges[0][1] + '/' + size);
+			rsp.setHeader(CONTENT_LENGTH, Long.toString(ranges[0][1] - ranges[0][0] + 1));
+			return null;
+		}
+		String boundary = Long.toHexString(ThreadLocalRandom.current().nextLong());
+		byte[][] parts = new byte[ranges.length + 1][];
+		long length = 0;
+		for (int i = 0; i < ranges.length; i++) {
+			String header = "\r\n--" + boundary + "\r\n" + CONTENT_TYPE + ": " + contentType + "\r\n" + CONTENT_RANGE
+					+ ": " + BYTES + ' ' + ranges[i][0] + '-' + ranges[i][1] + '/' + size + "\r\n\r\n";
+			parts[i] = header.getBytes(StandardCharsets.US_ASCII);
+			length += parts[i].length + ranges[i][1] - ranges[i][0] + 1;
+		}
+		parts[ranges.length] = ("\r\n--" + boundary + "--\r\n").getBytes(StandardCharsets.US_ASCII);
+		length += parts[ranges.length].length;
+		rsp.setHeader(CONTENT_TYPE, "multipart/byteranges; boundary=" + boundary);
+		rsp.setHeader(CONTENT_LENGTH, Long.toString(length));
+		return parts;
+	}
+
+	protected void sendRanges(WebResponse rsp, ByteBuffer body, long[][] ranges, String contentType)
+			throws Exception {
+		if (ranges.length == 0) {
+			sendRangeNotSatisfiable(rsp, body.capacity());
+			return;
+		}
+		byte[][] parts = setRangeHeaders(rsp, ranges, body.capacity(), contentType);
+		for (int i = 0; i < ranges.length; i++) {
+			if (parts != null) {
+				rsp.send(parts[i]);
+			}
+			ByteBuffer slice = body.duplicate();
+			slice.position((int) ranges[i][0]);
+			byte[] bytes = new byte[(int) (ranges[i][1] - ranges[i][0] + 1)];
+			slice.get(bytes);
+			rsp.send(bytes);
+		}
+		if (parts != null) {
+			rsp.send(parts[ranges.length]);
+		}
+	}
+
+	protected void sendRangeNotSatisfiable(WebResponse rsp, long size) {
+		rsp.setStatus(416);
+		rsp.setHeader(CONTENT_RANGE, BYTES + " */" + size);
+		rsp.setHeader(CONTENT_LENGTH, "0");
+	}
+
+	protected boolean matchesETag(String ifRange, String etag) {
+		if (etag == null || ifRange.startsWith("W/")) {
+			return false;
+		}
+		return unquote(ifRange.trim()).equals(etag);
+	}
+
+	/**
+	 * Finds the ETag of the file (or the ETag of a precompressed variant) in
+	 * the "If-None-Match" header. Uses weak comparison, like the
+	 * TopLevelCache: the list may contain "*", weak and quoted tags.
+	 * 
+	 * @param ifNoneMatch
+	 *            value of the "If-None-Match" header
+	 * @param etag
+	 *            ETag of the file (without quotes)
+	 * 
+	 * @return the matching ETag (without quotes), or null
+	 */
+	protected String findETag(String ifNoneMatch, String etag) {
+		for (String token : ifNoneMatch.split(",")) {
+			String value = token.trim();
+			if ("*".equals(value)) {
+				return etag;
+			}
+			if (value.startsWith("W/")) {
+				value = value.substring(2);
+			}
+			value = unquote(value);
+			if (value.equals(etag) || value.equals(etag + '-' + GZIP) || value.equals(etag + '-' + BROTLI)) {
+				return value;
+			}
+		}
+		return null;
+	}
+
+	protected static String quote(String etag) {
+		return '"' + etag + '"';
+	}
+
+	protected static String unquote(String etag) {
+		if (etag.length() > 1 && etag.charAt(0) == '"' && etag.charAt(etag.length() - 1) == '"') {
+			return etag.substring(1, etag.length() - 1);
+		}
+		return etag;
+	}
+
+	// --- PRELOAD FILES ---
+
+	protected void preloadFiles() throws Exception {
+		Path root = getLocalDirectoryPath();
+		if (root == null) {
+			logger.warn("Unable to preload the \"" + localDirectory + "\" directory (directory not found).");
+			return;
+		}
+		Pattern fingerprint = immutablePattern == null || immutablePattern.isEmpty() ? null
+				: Pattern.compile(immutablePattern);
+		HashMap<String, CachedFile> files = new HashMap<>();
+		long[] total = new long[1];
+		Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+
+			@Override
+			public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+				if (!attrs.isRegularFile() || attrs.size() > maxCachedFileSize) {
+					return FileVisitResult.CONTINUE;
+				}
+				String name = file.getFileName().toString();
+				if (precompressed && (name.endsWith(".gz") || name.endsWith(".br"))
+						&& Files.isRegularFile(file.resolveSibling(name.substring(0, name.length() - 3)))) {
+
+					// Precompressed variant of an other file
+					return FileVisitResult.CONTINUE;
+				}
+				try {
+					String relativePath = formatPath(root.relativize(file).toString().replace('\\', '/'));
+					CachedFile cached = loadFile(file, relativePath);
+					cached.immutable = fingerprint != null && fingerprint.matcher(relativePath).find();
+					files.put(relativePath, cached);
+					total[0] += cached.size();
+				} catch (Exception cause) {
+					logger.warn("Unable to preload file: " + file, cause);
+				}
+				return FileVisitResult.CONTINUE;
+			}
+
+		});
+		manifest = Collections.unmodifiableMap(files);
+		logger.info(files.size() + " files (" + total[0] + " bytes) preloaded from the \"" + root + "\" directory.");
+	}
+
+	protected CachedFile loadFile(Path file, String relativePath) throws Exception {
+		byte[] body = Files.readAllBytes(file);
+		CachedFile cached = new CachedFile();
+		cached.lastChecked = System.currentTimeMillis();
+		if (useETags) {
+			cached.etag = contentHash(body);
+		}
+		cached.body = toBuffer(body);
+		String name = file.getFileName().toString();
+		if (precompressed) {
+			Path gz = file.resolveSibling(name + ".gz");
+			if (Files.isRegularFile(gz)) {
+				cached.gzipBody = toBuffer(Files.readAllBytes(gz));
+			}
+			Path br = file.resolveSibling(name + ".br");
+			if (Files.isRegularFile(br)) {
+				cached.brotliBody = toBuffer(Files.readAllBytes(br));
+			}
+		}
+		int i = name.lastIndexOf('.');
+		String contentType = getContentType(i > -1 ? name.substring(i + 1).toLowerCase() : "");
+		if (cached.gzipBody == null && compressAbove > 0 && body.length > compressAbove
+				&& isCompressible(contentType)) {
+			byte[] compressed = gzip(body, compressionLevel);
+			if (compressed.length < body.length) {
+				cached.gzipBody = toBuffer(compressed);
+			}
+		}
+		return cached;
+	}
+
+	/**
+	 * Creates a strong ETag from the content (first 128 bits of the SHA-256
+	 * hash, in hex format).
+	 * 
+	 * @param bytes
+	 *            content
+	 * 
+	 * @return ETag
+	 */
+	protected String contentHash(byte[] bytes) throws Exception {
+		byte[] hash = MessageDigest.getInstance("SHA-256").digest(bytes);
+		StringBuilder etag = new StringBuilder(32);
+		for (int i = 0; i < 16; i++) {
+			etag.append(Character.forDigit((hash[i] >> 4) & 0xF, 16));
+			etag.append(Character.forDigit(hash[i] & 0xF, 16));
+		}
+		return etag.toString();
+	}
+
+	// --- DIRECTORY WATCHER ---
+
+	protected void startWatcher() throws Exception {
+		Path root = getLocalDirectoryPath();
+		if (root == null || root.getFileSystem() != FileSystems.getDefault()) {
+			logger.warn("Unable to watch the \"" + localDirectory
+					+ "\" directory (not in the file system), using the \"enableReloading\" mode.");
+			return;
+		}
+		WatchService service = root.getFileSystem().newWatchService();
+		register(service, root);
+		watchService = service;
+		Thread watcher = new Thread(() -> {
+			processEvents(service, root);
+		}, "ServeStatic Watcher");
+		watcher.setDaemon(true);
+		watcher.start();
+		logger.info("Watching the \"" + root + "\" directory for changes.");
+	}
+
+	protected Path getLocalDirectoryPath() {
+		try {
+			File dir = new File(localDirectory);
+			if (dir.isDirectory()) {
+				return dir.toPath();
+			}
+			URL url = ServeStatic.class.getResource(formattedLocalDirectory);
+			if (url == null) {
+				url = Thread.currentThread().getContextClassLoader().getResource(formattedLocalDirectory.substring(1));
+			}
+			if (url != null && "file".equals(url.getProtocol())) {
+				return Paths.get(url.toURI());
+			}
+			if (url != null && "jar".equals(url.getProtocol())) {
+
+				// Directory in a JAR file
+				URI uri = url.toURI();
+				try {
+					FileSystems.getFileSystem(uri);
+				} catch (FileSystemNotFoundException notOpened) {
+					FileSystems.newFileSystem(uri, Collections.emptyMap());
+				}
+				return Paths.get(uri);
+			}
+		} catch (Exception cause) {
+			logger.debug("Unable to resolve directory: " + localDirectory, cause);
+		}
+		return null;
+	}
+
+	protected void register(WatchService service, Path dir) throws IOException {
+		Files.walkFileTree(dir, new SimpleFileVisitor<Path>() {
+
+			@Override
+			public FileVisitResult preVisitDirectory(Path subdir, BasicFileAttributes attrs) throws IOException {
+				subdir.register(service, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_DELETE,
+						StandardWatchEventKinds.ENTRY_MODIFY);
+				return FileVisitResult.CONTINUE;
+			}
+
+		});
+	}
+
+	protected void processEvents(WatchService service, Path root) {
+		try {
+			while (true) {
+				WatchKey key = service.take();
+				Path dir = (Path) key.watchable();
+				for (WatchEvent<?> event : key.pollEvents()) {
+					if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+
+						// Events lost
+						generation.incrementAndGet();
+						WeightedCache<String, CachedFile> cache = fileCache;
+						if (cache != null) {
+							cache.clear();
+						}
+						largeFileVariants.clear();
+						continue;
+					}
+					Path file = dir.resolve((Path) event.context());
+					if (event.kind() == StandardWatchEventKinds.ENTRY_CREATE && Files.isDirectory(file)) {
+						try {
+							register(service, file);
+						} catch (IOException cause) {
+							logger.warn("Unable to watch directory: " + file, cause);
+						}
+					}
+					invalidate(root.relativize(file).toString().replace('\\', '/'));
+				}
+				key.reset();
+			}
+		} catch (ClosedWatchServiceException | InterruptedException stopped) {
+
+			// Watcher stopped
+		}
+	}
+
+	/**
+	 * Removes a changed file (or the original file of a changed ".gz" or
+	 * ".br" variant) from the cache. If the path is not a cached file (eg. a
+	 * renamed or deleted directory), all files under the path are removed.
+	 * 
+	 * @param relativePath
+	 *            path of the changed file (relative to the local directory)
+	 */
+	protected void invalidate(String relativePath) {
+		generation.incrementAndGet();
+		String path = formatPath(relativePath);
+		String key = path;
+		if (key.endsWith(".gz") || key.endsWith(".br")) {
+			key = key.substring(0, key.length() - 3);
+		}
+		boolean removed = largeFileVariants.remove(key) != null;
+		WeightedCache<String, CachedFile> cache = fileCache;
+		if (cache != null) {
+			removed |= cache.remove(key);
+		}
+		if (!removed) {
+			String prefix = path + '/';
+			largeFileVariants.keySet().removeIf(k -> k.startsWith(prefix));
+			if (cache != null) {
+				cache.removeIf(k -> k.startsWith(prefix));
+			}
+		}
+	}
+
 	// --- STOP MIDDLEWARE ---
 
 	@Override
 	public void stopped() {
 		contentTypes.clear();
 		fileCache = null;
+		manifest = null;
+		largeFileVariants.clear();
+		WatchService service = watchService;
+		watchService = null;
+		if (service != null) {
+			try {
+				service.close();
+			} catch (Exception ignored) {
+			}
+		}
 	}
 
 	// --- DEFAULT CONTENT TYPES ---
@@ -960,6 +1752,62 @@ public class ServeStatic extends HttpMiddleware implements HttpConstants {
 		this.packetDelay = packetDelay;
 	}
 
+	public boolean isEnableRanges() {
+		return enableRanges;
+	}
+
+	public void setEnableRanges(boolean enableRanges) {
+		this.enableRanges = enableRanges;
+	}
+
+	public int getMaxRanges() {
+		return maxRanges;
+	}
+
+	public void setMaxRanges(int maxRanges) {
+		this.maxRanges = maxRanges;
+	}
+
+	public boolean isPrecompressed() {
+		return precompressed;
+	}
+
+	public void setPrecompressed(boolean precompressed) {
+		this.precompressed = precompressed;
+	}
+
+	public boolean isPreload() {
+		return preload;
+	}
+
+	public void setPreload(boolean preload) {
+		this.preload = preload;
+	}
+
+	public String getImmutablePattern() {
+		return immutablePattern;
+	}
+
+	public void setImmutablePattern(String immutablePattern) {
+		this.immutablePattern = immutablePattern;
+	}
+
+	public String getImmutableCacheControl() {
+		return immutableCacheControl;
+	}
+
+	public void setImmutableCacheControl(String immutableCacheControl) {
+		this.immutableCacheControl = immutableCacheControl;
+	}
+
+	public boolean isWatchForChanges() {
+		return watchForChanges;
+	}
+
+	public void setWatchForChanges(boolean watchForChanges) {
+		this.watchForChanges = watchForChanges;
+	}
+
 	public String getLocalDirectory() {
 		return localDirectory;
 	}
@@ -997,10 +1845,58 @@ public class ServeStatic extends HttpMiddleware implements HttpConstants {
 	}
 
 	public void setNumberOfCachedFiles(int numberOfCachedFiles) {
-		if (this.numberOfCachedFiles != numberOfCachedFiles && fileCache != null) {
-			fileCache = new Cache<>(numberOfCachedFiles);
-		}
+		boolean changed = this.numberOfCachedFiles != numberOfCachedFiles;
 		this.numberOfCachedFiles = numberOfCachedFiles;
+		if (changed && fileCache != null) {
+			fileCache = createCache();
+		}
+	}
+
+	public long getMaxCacheSize() {
+		return maxCacheSize;
+	}
+
+	public void setMaxCacheSize(long maxCacheSize) {
+		boolean changed = this.maxCacheSize != maxCacheSize;
+		this.maxCacheSize = maxCacheSize;
+		if (changed && fileCache != null) {
+			fileCache = createCache();
+		}
+	}
+
+	public boolean isOffHeap() {
+		return offHeap;
+	}
+
+	public void setOffHeap(boolean offHeap) {
+		this.offHeap = offHeap;
+	}
+
+	// --- CACHE STATISTICS ---
+
+	public long getCacheHits() {
+		WeightedCache<String, CachedFile> cache = fileCache;
+		return cache == null ? 0 : cache.getHits();
+	}
+
+	public long getCacheMisses() {
+		WeightedCache<String, CachedFile> cache = fileCache;
+		return cache == null ? 0 : cache.getMisses();
+	}
+
+	public long getCacheEvictions() {
+		WeightedCache<String, CachedFile> cache = fileCache;
+		return cache == null ? 0 : cache.getEvictions();
+	}
+
+	/**
+	 * Returns the total size of the cached files (BYTES).
+	 * 
+	 * @return size of the cache
+	 */
+	public long getCacheSize() {
+		WeightedCache<String, CachedFile> cache = fileCache;
+		return cache == null ? 0 : cache.getWeight();
 	}
 
 	public boolean isEnableReloading() {
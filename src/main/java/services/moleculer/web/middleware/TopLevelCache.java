@@ -26,20 +26,40 @@
 package services.moleculer.web.middleware;
 
 import static services.moleculer.util.CommonUtils.formatPath;
+import static services.moleculer.web.common.GatewayUtils.getCookieValue;
+import static services.moleculer.web.common.GatewayUtils.isCancelled;
 import static services.moleculer.web.common.GatewayUtils.sendError;
 
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
 import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
+import java.util.Locale;
+import java.util.Map;
 import java.util.Objects;
+import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.zip.CRC32;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import io.datatree.Tree;
 import io.datatree.dom.Cache;
+import services.moleculer.ServiceBroker;
 import services.moleculer.cacher.Cacher;
 import services.moleculer.eventbus.Matcher;
 import services.moleculer.service.Name;
@@ -47,6 +67,7 @@ import services.moleculer.web.RequestProcessor;
 import services.moleculer.web.WebRequest;
 import services.moleculer.web.WebResponse;
 import services.moleculer.web.common.HttpConstants;
+import services.moleculer.web.netty.NettyWebResponse;
 
 /**
  * URL-based content cache. It is good for caching the responses of
@@ -89,6 +110,53 @@ public class TopLevelCache extends HttpMiddleware implements HttpConstants {
 	 */
 	protected boolean useETags = true;
 
+	/**
+	 * Expired content is served for this many SECONDS after the "ttl", while
+	 * one request reloads it in the background (0 = disabled).
+	 */
+	protected int staleWhileRevalidate = 0;
+
+	/**
+	 * Concurrent requests of an uncached content wait for the first request
+	 * (up to this many MILLISECONDS), instead of invoking the action again.
+	 * Unfinished requests are forgotten after this time.
+	 */
+	protected long flightTimeout = 10000;
+
+	// --- RUNNING REQUESTS (BY CACHE KEY) ---
+
+	protected final ConcurrentHashMap<String, Flight> flights = new ConcurrentHashMap<>();
+
+	protected static final class Flight extends CompletableFuture<byte[]> {
+
+		protected final long started = System.currentTimeMillis();
+
+	}
+
+	protected ScheduledExecutorService scheduler;
+
+	// --- COMPOSITION OF CACHE KEYS ---
+
+	/**
+	 * Include the normalized (sorted) query string in the cache key.
+	 */
+	protected boolean useQueryString = true;
+
+	/**
+	 * Request headers in the cache key (eg. "Accept", "Accept-Language").
+	 */
+	protected String[] keyHeaders = new String[0];
+
+	/**
+	 * Cookies in the cache key (eg. "locale").
+	 */
+	protected String[] keyCookies = new String[0];
+
+	/**
+	 * Header names of the "Vary" response headers (by path).
+	 */
+	protected final ConcurrentHashMap<String, String[]> varyHeaders = new ConcurrentHashMap<>();
+
 	// --- CONSTRUCTORS ---
 
 	public TopLevelCache(Cacher cacher, String... pathPatterns) {
@@ -96,6 +164,14 @@ public class TopLevelCache extends HttpMiddleware implements HttpConstants {
 		addPathPattern(pathPatterns);
 	}
 
+	// --- START MIDDLEWARE ---
+
+	@Override
+	public void started(ServiceBroker broker) throws Exception {
+		super.started(broker);
+		scheduler = broker.getConfig().getScheduler();
+	}
+
 	// --- CREATE NEW PROCESSOR ---
 
 	@Override
@@ -119,11 +195,11 @@ public class TopLevelCache extends HttpMiddleware implements HttpConstants {
 			@Override
 			public void service(WebRequest req, WebResponse rsp) throws Exception {
 
-				// Check method and Query String
+				// Check method and body
 				if (req.getBody() != null || !"GET".equals(req.getMethod())) {
 
 					// Disable caching POST methods and/or any methods
-					// with Query Strings (uploaded data)
+					// with uploaded data
 					next.service(req, rsp);
 					return;
 				}
@@ -152,130 +228,655 @@ public class TopLevelCache extends HttpMiddleware implements HttpConstants {
 				}
 
 				// Try to load from cache
-				String key = region + '.' + path + '|' + req.getHeader(ACCEPT_ENCODING);
+				String key = createKey(req, rsp, path, varyHeaders.get(path));
 				cacher.get(key).then(in -> {
-					if (in == null || in.isNull()) {
+					byte[] data = in == null || in.isNull() ? null : in.asBytes();
+					if (!isEnvelope(data)) {
 
 						// Not in the cache
-						ByteArrayOutputStream buffer = new ByteArrayOutputStream(1024);
-						Tree data = new Tree();
-						Tree headers = data.putMap("headers");
+						Flight flight = new Flight();
+						Flight running = startFlight(key, flight);
+						if (running != null) {
+
+							// Wait for the response of the running request
+							await(key, running, next, req, rsp);
+							return;
+						}
 
 						// Invoke next handler / action
-						next.service(req, new WebResponse() {
+						try {
+							next.service(req, new CachingResponse(key, path, flight, req, rsp, true));
+						} catch (Exception cause) {
+							complete(key, flight, null);
+							throw cause;
+						}
 
-							AtomicBoolean finished = new AtomicBoolean();
+					} else {
 
-							@Override
-							public final void setStatus(int code) {
-								rsp.setStatus(code);
-								data.put("status", code);
-							}
+						// Found in cache
+						sendCached(data, req, rsp);
 
-							@Override
-							public final int getStatus() {
-								return rsp.getStatus();
-							}
+						// Refresh the expired content in the background
+						long freshUntil = readLong(data, FRESH_UNTIL_POS);
+						if (freshUntil > 0 && System.currentTimeMillis() > freshUntil) {
+							refresh(key, path, next, req, rsp);
+						}
 
-							@Override
-							public final void setHeader(String name, String value) {
-								rsp.setHeader(name, value);
-								headers.put(name, value);
-							}
+					}
+				}).catchError(err -> {
+					sendError(rsp, err);
+				});
+			}
+		};
+	}
 
-							@Override
-							public final String getHeader(String name) {
-								return rsp.getHeader(name);
-							}
+	// --- CACHE KEY ---
 
-							@Override
-							public final void send(byte[] bytes) throws IOException {
-								buffer.write(bytes);
-							}
+	/**
+	 * Creates the cache key from the path, the normalized query string, the
+	 * "Accept-Encoding" header, the "keyHeaders", the "keyCookies", and the
+	 * headers listed in the "Vary" header of the previous response.
+	 */
+	protected String createKey(WebRequest req, WebResponse rsp, String path, String[] vary) {
+		StringBuilder key = new StringBuilder(128);
+		key.append(region).append('.').append(path);
+		if (useQueryString) {
+			String query = normalizeQuery(req.getQuery());
+			if (!query.isEmpty()) {
+				key.append('?').append(query);
+			}
+		}
+		key.append('|').append(req.getHeader(ACCEPT_ENCODING));
+		for (String name : keyHeaders) {
+			key.append('|').append(name).append('=').append(req.getHeader(name));
+		}
+		for (String name : keyCookies) {
+			key.append("|$").append(name).append('=').append(getCookieValue(req, rsp, name));
+		}
+		if (vary != null) {
+			for (String name : vary) {
+				if (!contains(keyHeaders, name)) {
+					key.append('|').append(name).append('=').append(req.getHeader(name));
+				}
+			}
+		}
+		return key.toString();
+	}
 
-							@Override
-							public final boolean end() {
-								if (finished.compareAndSet(false, true)) {
-									boolean ok;
-									try {
-
-										// Add ETag header
-										if (useETags) {
-											setHeader(ETAG, Long.toHexString(Math.abs(System.nanoTime())));
-											setHeader(CACHE_CONTROL, "must-revalidate, post-check=0, pre-check=0");
-										}
-
-										// Store in cache
-										byte[] body = buffer.toByteArray();
-										rsp.send(body);
-										if (body.length > 0) {
-											data.put("body", body);
-										}
-										cacher.set(key, data, ttl);
-
-									} catch (Exception cause) {
-										logger.error("Unable to store content!", cause);
-									} finally {
-										ok = rsp.end();
-									}
-									return ok;
-								}
-								return false;
-							}
+	/**
+	 * Sorts the parameters of the query string by name (the order of the
+	 * parameters with the same name is preserved).
+	 */
+	protected static String normalizeQuery(String query) {
+		if (query == null || query.isEmpty()) {
+			return "";
+		}
+		String[] params = query.split("&");
+		if (params.length > 1) {
+			Arrays.sort(params, (a, b) -> {
+				int i = a.indexOf('=');
+				int j = b.indexOf('=');
+				return (i < 0 ? a : a.substring(0, i)).compareTo(j < 0 ? b : b.substring(0, j));
+			});
+		}
+		StringBuilder normalized = new StringBuilder(query.length());
+		for (String param : params) {
+			if (!param.isEmpty()) {
+				if (normalized.length() > 0) {
+					normalized.append('&');
+				}
+				normalized.append(param);
+			}
+		}
+		return normalized.toString();
+	}
 
-							@Override
-							public final void setProperty(String name, Object value) {
-								rsp.setProperty(name, value);
-							}
+	/**
+	 * Returns the (sorted) header names of the "Vary" header, except the
+	 * "Accept-Encoding" (which is always part of the key), or null if the
+	 * value is "*".
+	 */
+	protected static String[] parseVary(String vary) {
+		TreeSet<String> names = new TreeSet<>(String.CASE_INSENSITIVE_ORDER);
+		for (String token : vary.split(",")) {
+			String name = token.trim();
+			if ("*".equals(name)) {
+				return null;
+			}
+			if (!name.isEmpty() && !ACCEPT_ENCODING.equalsIgnoreCase(name)) {
+				names.add(name);
+			}
+		}
+		return names.toArray(new String[names.size()]);
+	}
 
-							@Override
-							public final Object getProperty(String name) {
-								return rsp.getProperty(name);
-							}
+	protected static boolean contains(String[] array, String value) {
+		for (String item : array) {
+			if (item.equalsIgnoreCase(value)) {
+				return true;
+			}
+		}
+		return false;
+	}
 
-							@Override
-							public final Object getInternalObject() {
-								return rsp.getInternalObject();
-							}
-							
-						});
+	// --- SINGLE-FLIGHT REQUESTS ---
+
+	/**
+	 * Registers the request of a key, if no other request is running with
+	 * the same key. Requests that are older than "flightTimeout" (eg. their
+	 * responses were never ended) are removed, and their waiting requests are
+	 * processed independently.
+	 * 
+	 * @return the running request, or null if the new request is registered
+	 */
+	protected Flight startFlight(String key, Flight flight) {
+		while (true) {
+			Flight running = flights.putIfAbsent(key, flight);
+			if (running == null) {
+				return null;
+			}
+			if (flightTimeout <= 0 || flight.started - running.started < flightTimeout) {
+				return running;
+			}
+			if (flights.remove(key, running)) {
+				running.complete(null);
+			}
+		}
+	}
+
+	/**
+	 * Waits for the response of a running request (with the same cache key),
+	 * and sends it to the client. If the running request fails or does not
+	 * finish within "flightTimeout" milliseconds, the request is processed
+	 * independently.
+	 */
+	protected void await(String key, Flight flight, RequestProcessor next, WebRequest req, WebResponse rsp) {
+		AtomicBoolean done = new AtomicBoolean();
+		ScheduledFuture<?> timer = null;
+		if (scheduler != null && flightTimeout > 0) {
+			timer = scheduler.schedule(() -> {
+				if (done.compareAndSet(false, true)) {
+
+					// The running request did not finish in time (the next
+					// request of the key will invoke the action again)
+					flights.remove(key, flight);
+					serviceDirect(next, req, rsp);
+				}
+			}, flightTimeout, TimeUnit.MILLISECONDS);
+		}
+		ScheduledFuture<?> scheduled = timer;
+		flight.whenComplete((data, err) -> {
+			if (!done.compareAndSet(false, true)) {
+				return;
+			}
+			if (scheduled != null) {
+				scheduled.cancel(false);
+			}
+			if (data == null) {
+				serviceDirect(next, req, rsp);
+				return;
+			}
+			try {
+				sendCached(data, req, rsp);
+			} catch (Throwable cause) {
+				sendError(rsp, cause);
+			}
+		});
+	}
+
+	protected void serviceDirect(RequestProcessor next, WebRequest req, WebResponse rsp) {
+		try {
+			next.service(req, rsp);
+		} catch (Throwable cause) {
+			sendError(rsp, cause);
+		}
+	}
+
+	/**
+	 * Reloads an expired (but still cached) content, if no other request
+	 * reloads it.
+	 */
+	protected void refresh(String key, String path, RequestProcessor next, WebRequest req, WebResponse rsp) {
+		Flight flight = new Flight();
+		if (startFlight(key, flight) != null) {
+			return;
+		}
+		try {
+			next.service(req, new CachingResponse(key, path, flight, req, rsp, false));
+		} catch (Throwable cause) {
+			logger.warn("Unable to refresh cached content!", cause);
+			complete(key, flight, null);
+		}
+	}
+
+	protected void complete(String key, CompletableFuture<byte[]> flight, byte[] data) {
+		flights.remove(key, flight);
+		flight.complete(data);
+	}
+
+	protected void sendCached(byte[] data, WebRequest req, WebResponse rsp) throws Exception {
+		try {
+			if (useETags && isNotModified(data, req)) {
+
+				// 304 Not Modified (only the validators are sent)
+				rsp.setStatus(304);
+				String etag = readString(data, ETAG_POS);
+				if (!etag.isEmpty()) {
+					rsp.setHeader(ETAG, etag);
+				}
+				long lastModified = readLong(data, LAST_MODIFIED_POS);
+				if (lastModified > 0) {
+					rsp.setHeader(LAST_MODIFIED, formatDate(lastModified));
+				}
+				return;
+			}
+			send(data, rsp);
+		} finally {
+			rsp.end();
+		}
+	}
+
+	/**
+	 * Evaluates the conditional headers of the request ("If-None-Match" takes
+	 * precedence over "If-Modified-Since").
+	 */
+	protected boolean isNotModified(byte[] data, WebRequest req) {
+		String ifNoneMatch = req.getHeader(IF_NONE_MATCH);
+		if (ifNoneMatch != null) {
+			return matchesETag(data, ifNoneMatch);
+		}
+		String ifModifiedSince = req.getHeader(IF_MODIFIED_SINCE);
+		if (ifModifiedSince != null) {
+			long lastModified = readLong(data, LAST_MODIFIED_POS);
+			long since = parseDate(ifModifiedSince);
+			return lastModified > 0 && since > 0 && lastModified / 1000 <= since / 1000;
+		}
+		return false;
+	}
+
+	/**
+	 * Returns true if a response with the specified status code can be stored
+	 * in the cache (and shared with the concurrent requests).
+	 * 
+	 * @param status
+	 *            HTTP status code
+	 * 
+	 * @return true if the response is cacheable
+	 */
+	protected boolean isCacheable(int status) {
+		return status == 200;
+	}
+
+	// --- RESPONSE WRAPPER ---
+
+	/**
+	 * Collects the response for the cache. The response is also sent to the
+	 * client (or only stored, when the expired content is refreshed in the
+	 * background).
+	 */
+	protected class CachingResponse implements WebResponse {
+
+		protected final String key;
+		protected final String path;
+		protected final CompletableFuture<byte[]> flight;
+		protected final WebRequest req;
+		protected final WebResponse rsp;
+		protected final boolean forward;
+
+		protected final AtomicBoolean finished = new AtomicBoolean();
+		protected final ByteArrayOutputStream buffer = new ByteArrayOutputStream(1024);
+		protected final LinkedHashMap<String, String> headers = new LinkedHashMap<>();
+		protected int status = 200;
+		protected HashMap<String, Object> properties;
+
+		/**
+		 * The next handler has set the status, a header or the body (false
+		 * if the response is ended without content, eg. the action was not
+		 * called).
+		 */
+		protected boolean produced;
+
+		protected CachingResponse(String key, String path, CompletableFuture<byte[]> flight, WebRequest req,
+				WebResponse rsp, boolean forward) {
+			this.key = key;
+			this.path = path;
+			this.flight = flight;
+			this.req = req;
+			this.rsp = rsp;
+			this.forward = forward;
+		}
+
+		@Override
+		public final void setStatus(int code) {
+			produced = true;
+			if (forward) {
+				rsp.setStatus(code);
+			}
+			status = code;
+		}
+
+		@Override
+		public final int getStatus() {
+			return status;
+		}
+
+		@Override
+		public final void setHeader(String name, String value) {
+			produced = true;
+			if (forward) {
+				rsp.setHeader(name, value);
+			}
+			headers.put(name, value);
+		}
+
+		@Override
+		public final String getHeader(String name) {
+			return forward ? rsp.getHeader(name) : headers.get(name);
+		}
+
+		@Override
+		public final void send(byte[] bytes) throws IOException {
+			produced = true;
+			buffer.write(bytes);
+		}
+
+		@Override
+		public final boolean end() {
+			if (finished.compareAndSet(false, true)) {
+				boolean ok = false;
+				byte[] data = null;
+				try {
+					byte[] body = buffer.toByteArray();
+					if (!produced || isCancelled(this) || !isCacheable(status)) {
+
+						// Aborted responses (the action was not called) and
+						// errors (eg. "408 Request Timeout") are not stored, and
+						// the waiting requests invoke the action themselves
+						if (forward && body.length > 0) {
+							rsp.send(body);
+						}
 
 					} else {
 
-						// Found in cache
-						try {
-							Tree headers = in.get("headers");
-							if (headers != null) {
-								if (useETags) {
-									String etag = headers.get(ETAG, (String) null);
-									if (etag != null) {
-										String ifNoneMatch = req.getHeader(IF_NONE_MATCH);
-										if (ifNoneMatch != null && ifNoneMatch.equals(etag)) {
-											rsp.setStatus(304);
-											rsp.setHeader(CONTENT_LENGTH, "0");
-											return;
-										}
-									}
-								}
-								rsp.setStatus(in.get("status", 200));
-								for (Tree header : headers) {
-									rsp.setHeader(header.getName(), header.asString());
-								}
+						// Add validators (the ETag is the checksum of the body,
+						// so it is the same on all nodes)
+						long lastModified = 0;
+						if (useETags) {
+							if (!headers.containsKey(ETAG)) {
+								setHeader(ETAG, contentHash(body));
+							}
+							String modified = headers.get(LAST_MODIFIED);
+							if (modified == null) {
+								lastModified = System.currentTimeMillis();
+								setHeader(LAST_MODIFIED, formatDate(lastModified));
+							} else {
+								lastModified = parseDate(modified);
+							}
+							setHeader(CACHE_CONTROL, "must-revalidate, post-check=0, pre-check=0");
+						}
+
+						// Store in cache
+						if (forward) {
+							rsp.send(body);
+						}
+						long freshUntil = 0;
+						int expiration = ttl;
+						if (ttl > 0 && staleWhileRevalidate > 0) {
+							freshUntil = System.currentTimeMillis() + ttl * 1000L;
+							expiration += staleWhileRevalidate;
+						}
+						data = encode(freshUntil, lastModified, status, headers, body);
+
+						// Key of the variant (by the "Vary" header of the response)
+						String vary = headers.get(VARY);
+						String[] names = vary == null ? varyHeaders.get(path) : parseVary(vary);
+						if (names == null && vary != null) {
+
+							// "Vary: *" (do not cache)
+							data = null;
+
+						} else {
+							if (vary != null && !Arrays.equals(names, varyHeaders.get(path))) {
+								varyHeaders.put(path, names);
 							}
-							Tree body = in.get("body");
-							if (body != null) {
-								rsp.send(body.asBytes());
+							String variantKey = createKey(req, rsp, path, names);
+							cacher.set(variantKey, new Tree().setObject(data), expiration);
+							if (!key.equals(variantKey)) {
+
+								// Concurrent requests may need other variants
+								data = null;
 							}
-						} finally {
-							rsp.end();
 						}
 
 					}
-				}).catchError(err -> {
-					sendError(rsp, err);
-				});
+				} catch (Exception cause) {
+					logger.error("Unable to store content!", cause);
+				} finally {
+					if (forward) {
+						ok = rsp.end();
+					}
+					complete(key, flight, data);
+				}
+				return ok;
 			}
-		};
+			return false;
+		}
+
+		@Override
+		public final void setProperty(String name, Object value) {
+			if (forward) {
+				rsp.setProperty(name, value);
+				return;
+			}
+			if (properties == null) {
+				properties = new HashMap<>();
+			}
+			properties.put(name, value);
+		}
+
+		@Override
+		public final Object getProperty(String name) {
+			if (properties != null && properties.containsKey(name)) {
+				return properties.get(name);
+			}
+			return rsp.getProperty(name);
+		}
+
+		@Override
+		public final Object getInternalObject() {
+			return forward ? rsp.getInternalObject() : null;
+		}
+
+	}
+
+	// --- BINARY ENVELOPE ---
+
+	/**
+	 * Cached responses are stored in one byte array (without per-field
+	 * serialization of the Cacher). Format of the envelope:
+	 * <ul>
+	 * <li>magic bytes ('T', 'C') and version (1 byte)
+	 * <li>end of the freshness, in milliseconds (8 bytes, 0 = no
+	 * stale-while-revalidate)
+	 * <li>time of the last modification, in milliseconds (8 bytes, 0 =
+	 * unknown)
+	 * <li>status code (2 bytes)
+	 * <li>length and UTF-8 bytes of the ETag (2 + n bytes)
+	 * <li>number of headers (2 bytes), then length and UTF-8 bytes of the name
+	 * and the value of each header (2 + n + 2 + m bytes)
+	 * <li>body (up to the end of the array)
+	 * </ul>
+	 * The ETag can be compared without decoding the envelope, and the body is
+	 * sent directly from the array.
+	 */
+	protected static final byte[] MAGIC = { 'T', 'C', 2 };
+
+	protected static final int FRESH_UNTIL_POS = MAGIC.length;
+	protected static final int LAST_MODIFIED_POS = FRESH_UNTIL_POS + 8;
+	protected static final int STATUS_POS = LAST_MODIFIED_POS + 8;
+	protected static final int ETAG_POS = STATUS_POS + 2;
+
+	protected static byte[] encode(long freshUntil, long lastModified, int status, Map<String, String> headers,
+			byte[] body) {
+		ByteArrayOutputStream out = new ByteArrayOutputStream(body.length + 256);
+		out.write(MAGIC, 0, MAGIC.length);
+		writeLong(out, freshUntil);
+		writeLong(out, lastModified);
+		writeShort(out, status);
+		String etag = headers.get(ETAG);
+		writeString(out, etag == null ? "" : etag);
+		writeShort(out, headers.size());
+		for (Map.Entry<String, String> header : headers.entrySet()) {
+			writeString(out, header.getKey());
+			writeString(out, header.getValue());
+		}
+		out.write(body, 0, body.length);
+		return out.toByteArray();
+	}
+
+	protected static boolean isEnvelope(byte[] data) {
+		if (data == null || data.length < ETAG_POS + 4) {
+			return false;
+		}
+		for (int i = 0; i < MAGIC.length; i++) {
+			if (data[i] != MAGIC[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Compares the ETag of the envelope with the "If-None-Match" header (which
+	 * can be "*", or a list of weak or strong, quoted or unquoted ETags).
+	 */
+	protected static boolean matchesETag(byte[] data, String ifNoneMatch) {
+		int pos = ETAG_POS + 2;
+		int len = readShort(data, ETAG_POS);
+		if (len > 2 && data[pos] == 'W' && data[pos + 1] == '/') {
+			pos += 2;
+			len -= 2;
+		}
+		if (len > 1 && data[pos] == '"' && data[pos + len - 1] == '"') {
+			pos++;
+			len -= 2;
+		}
+		for (String token : ifNoneMatch.split(",")) {
+			String etag = token.trim();
+			if ("*".equals(etag)) {
+				return true;
+			}
+			if (etag.startsWith("W/")) {
+				etag = etag.substring(2);
+			}
+			if (etag.length() > 1 && etag.charAt(0) == '"' && etag.charAt(etag.length() - 1) == '"') {
+				etag = etag.substring(1, etag.length() - 1);
+			}
+			if (len == 0 || etag.length() != len) {
+				continue;
+			}
+			int i = 0;
+			while (i < len && data[pos + i] == etag.charAt(i)) {
+				i++;
+			}
+			if (i == len) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	protected static void send(byte[] data, WebResponse rsp) throws IOException {
+		rsp.setStatus(readShort(data, STATUS_POS));
+		int pos = ETAG_POS;
+		pos += 2 + readShort(data, pos);
+		int count = readShort(data, pos);
+		pos += 2;
+		for (int i = 0; i < count; i++) {
+			int len = readShort(data, pos);
+			String name = new String(data, pos + 2, len, StandardCharsets.UTF_8);
+			pos += 2 + len;
+			len = readShort(data, pos);
+			String value = new String(data, pos + 2, len, StandardCharsets.UTF_8);
+			pos += 2 + len;
+			rsp.setHeader(name, value);
+		}
+		int length = data.length - pos;
+		if (length > 0) {
+
+			// Send body without copying
+			if (rsp instanceof NettyWebResponse
+					&& ((NettyWebResponse) rsp).sendBuffer(ByteBuffer.wrap(data, pos, length))) {
+				return;
+			}
+			rsp.send(Arrays.copyOfRange(data, pos, data.length));
+		}
+	}
+
+	protected static void writeString(ByteArrayOutputStream out, String value) {
+		byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+		int len = Math.min(bytes.length, 0xFFFF);
+		writeShort(out, len);
+		out.write(bytes, 0, len);
+	}
+
+	protected static void writeLong(ByteArrayOutputStream out, long value) {
+		for (int i = 56; i >= 0; i -= 8) {
+			out.write((int) (value >> i));
+		}
+	}
+
+	protected static void writeShort(ByteArrayOutputStream out, int value) {
+		out.write(value >> 8);
+		out.write(value);
+	}
+
+	protected static int readShort(byte[] data, int pos) {
+		return ((data[pos] & 0xFF) << 8) | (data[pos + 1] & 0xFF);
+	}
+
+	protected static String readString(byte[] data, int pos) {
+		return new String(data, pos + 2, readShort(data, pos), StandardCharsets.UTF_8);
+	}
+
+	protected static long readLong(byte[] data, int pos) {
+		long value = 0;
+		for (int i = 0; i < 8; i++) {
+			value = (value << 8) | (data[pos + i] & 0xFF);
+		}
+		return value;
+	}
+
+	// --- VALIDATORS ---
+
+	/**
+	 * Creates a strong (quoted) ETag from the checksum and the length of the
+	 * body.
+	 * 
+	 * @param body
+	 *            content
+	 * 
+	 * @return ETag
+	 */
+	protected static String contentHash(byte[] body) {
+		CRC32 crc = new CRC32();
+		crc.update(body, 0, body.length);
+		return '"' + Long.toHexString(crc.getValue()) + '-' + Integer.toHexString(body.length) + '"';
+	}
+
+	protected static final DateTimeFormatter HTTP_DATE = DateTimeFormatter
+			.ofPattern("EEE, dd MMM yyyy HH:mm:ss 'GMT'", Locale.US).withZone(ZoneOffset.UTC);
+
+	protected static String formatDate(long millis) {
+		return HTTP_DATE.format(Instant.ofEpochMilli(millis));
+	}
+
+	protected static long parseDate(String date) {
+		try {
+			return ZonedDateTime.parse(date, DateTimeFormatter.RFC_1123_DATE_TIME).toInstant().toEpochMilli();
+		} catch (Exception invalid) {
+			return 0;
+		}
 	}
 
 	// --- PROPERTY GETTERS AND SETTERS ---
@@ -296,6 +897,46 @@ public class TopLevelCache extends HttpMiddleware implements HttpConstants {
 		this.ttl = ttl;
 	}
 
+	public int getStaleWhileRevalidate() {
+		return staleWhileRevalidate;
+	}
+
+	public void setStaleWhileRevalidate(int staleWhileRevalidate) {
+		this.staleWhileRevalidate = staleWhileRevalidate;
+	}
+
+	public long getFlightTimeout() {
+		return flightTimeout;
+	}
+
+	public void setFlightTimeout(long flightTimeout) {
+		this.flightTimeout = flightTimeout;
+	}
+
+	public boolean isUseQueryString() {
+		return useQueryString;
+	}
+
+	public void setUseQueryString(boolean useQueryString) {
+		this.useQueryString = useQueryString;
+	}
+
+	public String[] getKeyHeaders() {
+		return keyHeaders;
+	}
+
+	public void setKeyHeaders(String... keyHeaders) {
+		this.keyHeaders = Objects.requireNonNull(keyHeaders);
+	}
+
+	public String[] getKeyCookies() {
+		return keyCookies;
+	}
+
+	public void setKeyCookies(String... keyCookies) {
+		this.keyCookies = Objects.requireNonNull(keyCookies);
+	}
+
 	public String[] getPathPatterns() {
 		return pathPatterns;
 	}
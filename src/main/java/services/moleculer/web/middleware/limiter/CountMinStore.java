@@ -0,0 +1,190 @@
+/**
+ * THIS SOFTWARE IS LICENSED UNDER MIT LICENSE.<br>
+ * <br>
+ * Copyright 2019 Andras Berkes [andras.berkes@programmer.net]<br>
+ * Based on Moleculer Framework for NodeJS [https://moleculer.services].
+ * <br><br>
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:<br>
+ * <br>
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.<br>
+ * <br>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package services.moleculer.web.middleware.limiter;
+
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Memory-bounded hit counter (Count-Min Sketch). The addresses are hashed
+ * into a fixed-size array of counters, so the memory usage does not depend
+ * on the number of clients (width * depth * 8 bytes). The estimated count
+ * is never less than the real count; it can be greater by at most e / width
+ * * (number of requests in the window) with a probability of 1 - e^-depth.
+ * Each counter contains the index of its window, so the counters of the
+ * previous windows are reset lazily (without clearing the array). The
+ * addresses of the "allowList" are counted exactly. The RateLimiters with the
+ * same window can share one sketch (the hash of the address is salted with
+ * the ID of the RateLimiter); then the error depends on the number of all
+ * requests in the window.
+ */
+public class CountMinStore implements RatingStore {
+
+	// --- PACKED COUNTERS ---
+
+	/**
+	 * Low bits of a counter: number of hits.
+	 */
+	protected static final int COUNT_BITS = 40;
+
+	protected static final long COUNT_MASK = (1L << COUNT_BITS) - 1;
+
+	/**
+	 * High bits of a counter: index of the window.
+	 */
+	protected static final long WINDOW_MASK = (1L << (64 - COUNT_BITS)) - 1;
+
+	// --- PROPERTIES ---
+
+	protected final long windowMillis;
+
+	protected final Sketch sketch;
+
+	/**
+	 * Salt of the hash function (ID of the RateLimiter in the shared sketch).
+	 */
+	protected final long salt;
+
+	// --- SHARED COUNTERS ---
+
+	protected static final class Sketch {
+
+		protected final int width;
+
+		protected final int depth;
+
+		protected final AtomicLongArray counters;
+
+		/**
+		 * Random seed of the hash function (the collisions can not be
+		 * calculated in advance).
+		 */
+		protected final long seed = ThreadLocalRandom.current().nextLong();
+
+		protected Sketch(int width, int depth) {
+			this.width = Integer.highestOneBit(Math.max(2, width - 1)) << 1;
+			this.depth = Math.max(1, depth);
+			this.counters = new AtomicLongArray(this.width * this.depth);
+		}
+
+	}
+
+	// --- EXACT COUNTERS ---
+
+	protected final Set<String> allowList;
+
+	protected final ConcurrentHashMap<String, AtomicLong> exactCounters = new ConcurrentHashMap<>();
+
+	// --- CONSTRUCTOR ---
+
+	public CountMinStore(long windowMillis, int width, int depth, Set<String> allowList) {
+		this(windowMillis, new Sketch(width, depth), 0, allowList);
+	}
+
+	protected CountMinStore(long windowMillis, Sketch sketch, long salt, Set<String> allowList) {
+		this.windowMillis = Math.max(1, windowMillis);
+		this.sketch = sketch;
+		this.salt = salt;
+		this.allowList = allowList == null ? Collections.emptySet() : allowList;
+	}
+
+	// --- COUNT HITS ---
+
+	public long incrementAndGet(String address) {
+		long window = (currentTimeMillis() / windowMillis) & WINDOW_MASK;
+		if (allowList.contains(address)) {
+			AtomicLong counter = exactCounters.get(address);
+			if (counter == null) {
+				counter = exactCounters.computeIfAbsent(address, key -> new AtomicLong());
+			}
+			while (true) {
+				long value = counter.get();
+				long next = increment(value, window);
+				if (counter.compareAndSet(value, next)) {
+					return next & COUNT_MASK;
+				}
+			}
+		}
+		long hash = hash(address);
+		int h1 = (int) hash;
+		int h2 = (int) (hash >>> 32) | 1;
+		int width = sketch.width;
+		int mask = width - 1;
+		AtomicLongArray counters = sketch.counters;
+		long min = Long.MAX_VALUE;
+		for (int row = 0; row < sketch.depth; row++) {
+			int index = row * width + ((h1 + row * h2) & mask);
+			while (true) {
+				long value = counters.get(index);
+				long next = increment(value, window);
+				if (counters.compareAndSet(index, value, next)) {
+					min = Math.min(min, next & COUNT_MASK);
+					break;
+				}
+			}
+		}
+		return min;
+	}
+
+	protected static long increment(long value, long window) {
+		if ((value >>> COUNT_BITS) != window) {
+
+			// Counter of a previous window
+			return (window << COUNT_BITS) | 1;
+		}
+		if ((value & COUNT_MASK) == COUNT_MASK) {
+			return value;
+		}
+		return value + 1;
+	}
+
+	/**
+	 * Returns the current time (can be overridden in tests).
+	 * 
+	 * @return current time, in milliseconds
+	 */
+	protected long currentTimeMillis() {
+		return System.currentTimeMillis();
+	}
+
+	protected long hash(String address) {
+		long hash = sketch.seed ^ salt;
+		for (int i = 0; i < address.length(); i++) {
+			hash = (hash ^ address.charAt(i)) * 0x100000001b3L;
+		}
+		hash ^= hash >>> 33;
+		hash *= 0xff51afd7ed558ccdL;
+		hash ^= hash >>> 33;
+		hash *= 0xc4ceb9fe1a85ec53L;
+		hash ^= hash >>> 33;
+		return hash;
+	}
+
+}
@@ -0,0 +1,141 @@
+/**
+ * THIS SOFTWARE IS LICENSED UNDER MIT LICENSE.<br>
+ * <br>
+ * Copyright 2019 Andras Berkes [andras.berkes@programmer.net]<br>
+ * Based on Moleculer Framework for NodeJS [https://moleculer.services].
+ * <br><br>
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:<br>
+ * <br>
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.<br>
+ * <br>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package services.moleculer.web.middleware.limiter;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import io.datatree.Tree;
+
+public class CountMinStoreFactory extends RatingStoreFactory {
+
+	// --- PROPERTIES ---
+
+	/**
+	 * Number of counters per row (rounded up to a power of two).
+	 */
+	protected int width = 16384;
+
+	/**
+	 * Number of rows (hash functions).
+	 */
+	protected int depth = 4;
+
+	/**
+	 * Addresses counted exactly (eg. the addresses of known proxies).
+	 */
+	protected Set<String> allowList = Collections.emptySet();
+
+	// --- SHARED SKETCHES (BY WINDOW) ---
+
+	protected final ConcurrentHashMap<Long, CountMinStore.Sketch> sketches = new ConcurrentHashMap<>();
+
+	protected final AtomicLong sequence = new AtomicLong();
+
+	// --- CONSTRUCTORS ---
+
+	public CountMinStoreFactory() {
+	}
+
+	public CountMinStoreFactory(int width, int depth) {
+		setWidth(width);
+		setDepth(depth);
+	}
+
+	// --- CREATE STORE ---
+
+	/**
+	 * Creates a store in the shared sketch of the window. The salt of the
+	 * store is derived from the configuration of the Mapping, so recreated
+	 * Mappings continue counting in the same counters.
+	 */
+	@Override
+	public RatingStore createStore(Tree config, long windowMillis, long limit) {
+		if (config == null) {
+			return createStore(windowMillis);
+		}
+		String id = config.get("route", "") + '|' + config.get("method", "ALL") + '|' + config.get("pattern", "")
+				+ '|' + config.get("action", "") + '|' + limit;
+		return createSaltedStore(windowMillis, salt(id));
+	}
+
+	@Override
+	public RatingStore createStore(long windowMillis) {
+		return createSaltedStore(windowMillis, salt(Long.toString(sequence.incrementAndGet())));
+	}
+
+	protected CountMinStore createSaltedStore(long windowMillis, long salt) {
+		CountMinStore.Sketch sketch = sketches.get(windowMillis);
+		if (sketch == null) {
+			sketch = sketches.computeIfAbsent(windowMillis, key -> new CountMinStore.Sketch(width, depth));
+		}
+		return new CountMinStore(windowMillis, sketch, salt, allowList);
+	}
+
+	protected static long salt(String id) {
+		long hash = 0xcbf29ce484222325L;
+		for (int i = 0; i < id.length(); i++) {
+			hash = (hash ^ id.charAt(i)) * 0x100000001b3L;
+		}
+		return hash;
+	}
+
+	// --- PROPERTY GETTERS AND SETTERS ---
+
+	public int getWidth() {
+		return width;
+	}
+
+	public void setWidth(int width) {
+		this.width = width;
+	}
+
+	public int getDepth() {
+		return depth;
+	}
+
+	public void setDepth(int depth) {
+		this.depth = depth;
+	}
+
+	public Set<String> getAllowList() {
+		return allowList;
+	}
+
+	public void setAllowList(Set<String> allowList) {
+		this.allowList = Objects.requireNonNull(allowList);
+	}
+
+	public void setAllowList(String... addresses) {
+		this.allowList = new HashSet<>(Arrays.asList(addresses));
+	}
+
+}
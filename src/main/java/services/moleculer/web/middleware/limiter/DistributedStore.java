@@ -0,0 +1,160 @@
+/**
+ * THIS SOFTWARE IS LICENSED UNDER MIT LICENSE.<br>
+ * <br>
+ * Copyright 2019 Andras Berkes [andras.berkes@programmer.net]<br>
+ * Based on Moleculer Framework for NodeJS [https://moleculer.services].
+ * <br><br>
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:<br>
+ * <br>
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.<br>
+ * <br>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package services.moleculer.web.middleware.limiter;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import io.datatree.Tree;
+
+/**
+ * Cluster-wide hit counter (created by the DistributedStoreFactory). The
+ * requests are counted locally (in fixed windows aligned to the system
+ * clock); the local hits are sent periodically to the other nodes, and the
+ * received hits are added to the local counters. The hot path does not
+ * communicate with other nodes.
+ */
+public class DistributedStore implements RatingStore {
+
+	/**
+	 * Cluster-wide ID of the store (the same on all nodes with the same
+	 * configuration).
+	 */
+	protected final String id;
+
+	protected final long windowMillis;
+
+	protected final ConcurrentHashMap<String, Counter> counters = new ConcurrentHashMap<>();
+
+	protected static final class Counter {
+
+		protected final long window;
+
+		/**
+		 * Hits on this node.
+		 */
+		protected final AtomicLong local = new AtomicLong();
+
+		/**
+		 * Local hits not yet sent to the other nodes.
+		 */
+		protected final AtomicLong pending = new AtomicLong();
+
+		/**
+		 * Hits on other nodes.
+		 */
+		protected final AtomicLong remote = new AtomicLong();
+
+		protected Counter(long window) {
+			this.window = window;
+		}
+
+	}
+
+	public DistributedStore(String id, long windowMillis) {
+		this.id = id;
+		this.windowMillis = Math.max(1, windowMillis);
+	}
+
+	public long incrementAndGet(String address) {
+		Counter counter = getCounter(address, System.currentTimeMillis() / windowMillis);
+		counter.pending.incrementAndGet();
+		return counter.local.incrementAndGet() + counter.remote.get();
+	}
+
+	protected Counter getCounter(String address, long window) {
+		Counter counter = counters.get(address);
+		if (counter == null || counter.window < window) {
+			counter = counters.compute(address,
+					(key, current) -> current == null || current.window < window ? new Counter(window) : current);
+		}
+		return counter;
+	}
+
+	// --- SYNCHRONIZATION ---
+
+	/**
+	 * Adds the unsent local hits to the list (and removes the counters of the
+	 * previous windows).
+	 * 
+	 * @param list
+	 *            list of stores (ID and hits)
+	 * 
+	 * @return true if there were unsent hits
+	 */
+	protected boolean collectHits(Tree list) {
+		long window = System.currentTimeMillis() / windowMillis;
+		Tree hits = null;
+		Iterator<Map.Entry<String, Counter>> entries = counters.entrySet().iterator();
+		while (entries.hasNext()) {
+			Map.Entry<String, Counter> entry = entries.next();
+			Counter counter = entry.getValue();
+			long delta = counter.pending.getAndSet(0);
+			if (delta > 0) {
+				if (hits == null) {
+					Tree item = list.addMap();
+					item.put("id", id);
+					hits = item.putList("hits");
+				}
+				Tree hit = hits.addMap();
+				hit.put("a", entry.getKey());
+				hit.put("w", counter.window);
+				hit.put("d", delta);
+			}
+			if (counter.window < window) {
+				counters.remove(entry.getKey(), counter);
+			}
+		}
+		return hits != null;
+	}
+
+	/**
+	 * Adds the hits of an other node.
+	 * 
+	 * @param address
+	 *            remote address
+	 * @param window
+	 *            index of the time window
+	 * @param delta
+	 *            number of hits
+	 */
+	protected void addRemoteHits(String address, long window, long delta) {
+		if (window < System.currentTimeMillis() / windowMillis) {
+			return;
+		}
+		Counter counter = getCounter(address, window);
+		if (counter.window == window) {
+			counter.remote.addAndGet(delta);
+		}
+	}
+
+	public String getId() {
+		return id;
+	}
+
+}
@@ -0,0 +1,225 @@
+/**
+ * THIS SOFTWARE IS LICENSED UNDER MIT LICENSE.<br>
+ * <br>
+ * Copyright 2019 Andras Berkes [andras.berkes@programmer.net]<br>
+ * Based on Moleculer Framework for NodeJS [https://moleculer.services].
+ * <br><br>
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:<br>
+ * <br>
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.<br>
+ * <br>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package services.moleculer.web.middleware.limiter;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import io.datatree.Tree;
+import services.moleculer.ServiceBroker;
+import services.moleculer.eventbus.Listener;
+import services.moleculer.eventbus.Subscribe;
+import services.moleculer.service.Name;
+
+/**
+ * Shares the hit counters of the RateLimiters across the nodes (via the
+ * transporter of the ServiceBroker). The hits are counted locally, and the
+ * nodes broadcast the new hits in every "syncMillis" milliseconds. The
+ * cluster-wide limit can be exceeded (at most) by the number of requests
+ * that the other nodes accept during the synchronization period. The factory
+ * must be registered as a Service (to receive the events of other nodes).
+ * Sample:
+ * 
+ * <pre>
+ * DistributedStoreFactory factory = new DistributedStoreFactory();
+ * broker.createService(factory);
+ * RateLimiter limiter = new RateLimiter(100, true);
+ * limiter.setStoreFactory(factory);
+ * route.use(limiter);
+ * </pre>
+ */
+@Name("distributedRateLimiter")
+public class DistributedStoreFactory extends RatingStoreFactory {
+
+	// --- EVENT NAME ---
+
+	public static final String SYNC_EVENT = "rateLimiter.sync";
+
+	// --- PROPERTIES ---
+
+	/**
+	 * Period of the synchronization, in milliseconds.
+	 */
+	protected long syncMillis = 100;
+
+	// --- STORES ---
+
+	protected final ConcurrentHashMap<String, DistributedStore> stores = new ConcurrentHashMap<>();
+
+	// --- TIMER ---
+
+	protected String nodeID;
+
+	protected ScheduledFuture<?> timer;
+
+	// --- START SYNCHRONIZATION ---
+
+	@Override
+	public synchronized void started(ServiceBroker broker) throws Exception {
+		super.started(broker);
+		if (timer == null) {
+			nodeID = broker.getNodeID();
+			timer = broker.getConfig().getScheduler().scheduleWithFixedDelay(this::sync, syncMillis, syncMillis,
+					TimeUnit.MILLISECONDS);
+		}
+	}
+
+	// --- CREATE STORE ---
+
+	/**
+	 * Returns the store of a RateLimiter. The ID of the store is derived from
+	 * the route, the HTTP method, the path pattern and the action of the
+	 * Mapping, and from the window and the limit, so it is the same on all
+	 * nodes with the same configuration (regardless of the order in which the
+	 * Mappings are created). Recreated Mappings get the existing store.
+	 */
+	@Override
+	public RatingStore createStore(Tree config, long windowMillis, long limit) {
+		if (config == null) {
+			return createStore(windowMillis, limit);
+		}
+		StringBuilder id = new StringBuilder(64);
+		id.append(config.get("route", "")).append('|');
+		id.append(config.get("method", "ALL")).append('|');
+		id.append(config.get("pattern", "")).append('|');
+		id.append(config.get("action", "")).append('|');
+		id.append(windowMillis).append('/').append(limit);
+		return getStore(id.toString(), windowMillis);
+	}
+
+	/**
+	 * Returns the store of the RateLimiters with the specified window and
+	 * limit (without configuration, these RateLimiters share the counters).
+	 */
+	@Override
+	public RatingStore createStore(long windowMillis, long limit) {
+		return getStore(windowMillis + "/" + limit, windowMillis);
+	}
+
+	/**
+	 * Returns the store of the RateLimiters with the specified window and
+	 * without a known limit.
+	 */
+	@Override
+	public RatingStore createStore(long windowMillis) {
+		return getStore(Long.toString(windowMillis), windowMillis);
+	}
+
+	protected DistributedStore getStore(String id, long windowMillis) {
+		DistributedStore store = stores.get(id);
+		if (store == null) {
+			store = stores.computeIfAbsent(id, key -> new DistributedStore(key, windowMillis));
+		}
+		return store;
+	}
+
+	// --- SEND HITS ---
+
+	protected void sync() {
+		try {
+			Tree message = collectHits();
+			if (message != null) {
+				broker.broadcast(SYNC_EVENT, message);
+			}
+		} catch (Exception cause) {
+			logger.warn("Unable to send hits!", cause);
+		}
+	}
+
+	/**
+	 * Collects the unsent hits of the stores.
+	 * 
+	 * @return message to the other nodes (or null if there are no new hits)
+	 */
+	protected Tree collectHits() {
+		Tree message = new Tree();
+		message.put("node", nodeID);
+		Tree list = message.putList("stores");
+		boolean empty = true;
+		for (DistributedStore store : stores.values()) {
+			if (store.collectHits(list)) {
+				empty = false;
+			}
+		}
+		return empty ? null : message;
+	}
+
+	// --- RECEIVE HITS ---
+
+	@Subscribe(SYNC_EVENT)
+	protected Listener syncListener = ctx -> {
+		receiveHits(ctx.params);
+	};
+
+	/**
+	 * Adds the hits of an other node to the local stores.
+	 * 
+	 * @param message
+	 *            message of the other node
+	 */
+	protected void receiveHits(Tree message) {
+		if (message == null || nodeID == null || nodeID.equals(message.get("node", ""))) {
+			return;
+		}
+		Tree list = message.get("stores");
+		if (list == null) {
+			return;
+		}
+		for (Tree item : list) {
+			DistributedStore store = stores.get(item.get("id", ""));
+			Tree hits = item.get("hits");
+			if (store == null || hits == null) {
+				continue;
+			}
+			for (Tree hit : hits) {
+				store.addRemoteHits(hit.get("a", ""), hit.get("w", 0L), hit.get("d", 0L));
+			}
+		}
+	}
+
+	// --- STOP SYNCHRONIZATION ---
+
+	@Override
+	public synchronized void stopped() {
+		super.stopped();
+		if (timer != null) {
+			timer.cancel(false);
+			timer = null;
+		}
+	}
+
+	// --- PROPERTY GETTERS AND SETTERS ---
+
+	public long getSyncMillis() {
+		return syncMillis;
+	}
+
+	public void setSyncMillis(long syncMillis) {
+		this.syncMillis = syncMillis;
+	}
+
+}
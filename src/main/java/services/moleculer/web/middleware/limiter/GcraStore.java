@@ -0,0 +1,102 @@
+/**
+ * THIS SOFTWARE IS LICENSED UNDER MIT LICENSE.<br>
+ * <br>
+ * Copyright 2019 Andras Berkes [andras.berkes@programmer.net]<br>
+ * Based on Moleculer Framework for NodeJS [https://moleculer.services].
+ * <br><br>
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:<br>
+ * <br>
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.<br>
+ * <br>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package services.moleculer.web.middleware.limiter;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Lock-free rate limiter based on the Generic Cell Rate Algorithm. Each
+ * address has only one value, the "theoretical arrival time" of the next
+ * request, which is updated by CAS. The requests are spread evenly over the
+ * window (no bursts at the window boundaries); at most "limit" requests are
+ * allowed in any period of "window" length. Expired entries are removed
+ * lazily, once per window.
+ */
+public class GcraStore implements RatingStore {
+
+	protected final long limit;
+
+	protected final long windowNanos;
+
+	/**
+	 * Time between two requests (window / limit).
+	 */
+	protected final long intervalNanos;
+
+	protected final ConcurrentHashMap<String, AtomicLong> arrivals = new ConcurrentHashMap<>();
+
+	protected final AtomicLong nextCleanup;
+
+	public GcraStore(long windowMillis, long limit) {
+		this.limit = Math.max(1, limit);
+		this.windowNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(1, windowMillis));
+		this.intervalNanos = Math.max(1, windowNanos / this.limit);
+		this.nextCleanup = new AtomicLong(nanoTime() + windowNanos);
+	}
+
+	public long incrementAndGet(String address) {
+		long now = nanoTime();
+		cleanup(now);
+		AtomicLong arrival = arrivals.get(address);
+		if (arrival == null) {
+			arrival = arrivals.computeIfAbsent(address, key -> new AtomicLong(now));
+		}
+		while (true) {
+			long tat = arrival.get();
+			long next = Math.max(tat, now) + intervalNanos;
+
+			// Number of requests in the window (including this one)
+			long used = (next - now + intervalNanos - 1) / intervalNanos;
+			if (used > limit) {
+
+				// Rejected (does not change the state)
+				return used;
+			}
+			if (arrival.compareAndSet(tat, next)) {
+				return used;
+			}
+		}
+	}
+
+	/**
+	 * Returns the current value of the clock (can be overridden in tests).
+	 * 
+	 * @return current time, in nanoseconds
+	 */
+	protected long nanoTime() {
+		return System.nanoTime();
+	}
+
+	protected void cleanup(long now) {
+		long time = nextCleanup.get();
+		if (now - time >= 0 && nextCleanup.compareAndSet(time, now + windowNanos)) {
+			arrivals.values().removeIf(arrival -> arrival.get() - now <= 0);
+		}
+	}
+
+}
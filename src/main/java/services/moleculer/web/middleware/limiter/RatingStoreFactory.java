@@ -25,10 +25,53 @@
  */
 package services.moleculer.web.middleware.limiter;
 
+import io.datatree.Tree;
 import services.moleculer.service.Service;
 
 public abstract class RatingStoreFactory extends Service {
 
+	/**
+	 * Creates a new store for a RateLimiter. The store counts the requests,
+	 * and the RateLimiter rejects the requests above the limit.
+	 * 
+	 * @param windowMillis
+	 *            length of the window, in milliseconds
+	 * 
+	 * @return new RatingStore
+	 */
 	public abstract RatingStore createStore(long windowMillis);
 
+	/**
+	 * Creates a new store for a RateLimiter with a known limit. Stores which
+	 * depend on the limit (eg. GCRA or token bucket) override this method.
+	 * 
+	 * @param windowMillis
+	 *            length of the window, in milliseconds
+	 * @param limit
+	 *            maximum number of requests per window
+	 * 
+	 * @return new RatingStore
+	 */
+	public RatingStore createStore(long windowMillis, long limit) {
+		return createStore(windowMillis);
+	}
+
+	/**
+	 * Creates a new store for the RateLimiter of a Mapping. Factories of
+	 * shared stores can identify the RateLimiter by the configuration of the
+	 * Mapping (route, HTTP method, path pattern and action name).
+	 * 
+	 * @param config
+	 *            configuration of the Mapping
+	 * @param windowMillis
+	 *            length of the window, in milliseconds
+	 * @param limit
+	 *            maximum number of requests per window
+	 * 
+	 * @return new (or shared) RatingStore
+	 */
+	public RatingStore createStore(Tree config, long windowMillis, long limit) {
+		return createStore(windowMillis, limit);
+	}
+
 }
\ No newline at end of file
@@ -0,0 +1,121 @@
+/**
+ * THIS SOFTWARE IS LICENSED UNDER MIT LICENSE.<br>
+ * <br>
+ * Copyright 2019 Andras Berkes [andras.berkes@programmer.net]<br>
+ * Based on Moleculer Framework for NodeJS [https://moleculer.services].
+ * <br><br>
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:<br>
+ * <br>
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.<br>
+ * <br>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package services.moleculer.web.middleware.limiter;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Lock-free token bucket rate limiter. The bucket of each address holds
+ * "limit" tokens, and it is refilled continuously ("limit" tokens per
+ * window). The state of a bucket is an immutable object, replaced by CAS.
+ * Full buckets are removed lazily, once per window.
+ */
+public class TokenBucketStore implements RatingStore {
+
+	protected final long limit;
+
+	protected final long windowNanos;
+
+	/**
+	 * Refilled tokens per nanosecond.
+	 */
+	protected final double rate;
+
+	protected final ConcurrentHashMap<String, AtomicReference<Bucket>> buckets = new ConcurrentHashMap<>();
+
+	protected final AtomicLong nextCleanup;
+
+	protected static final class Bucket {
+
+		protected final double tokens;
+		protected final long time;
+
+		protected Bucket(double tokens, long time) {
+			this.tokens = tokens;
+			this.time = time;
+		}
+
+	}
+
+	public TokenBucketStore(long windowMillis, long limit) {
+		this.limit = Math.max(1, limit);
+		this.windowNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(1, windowMillis));
+		this.rate = (double) this.limit / windowNanos;
+		this.nextCleanup = new AtomicLong(nanoTime() + windowNanos);
+	}
+
+	public long incrementAndGet(String address) {
+		long now = nanoTime();
+		cleanup(now);
+		AtomicReference<Bucket> reference = buckets.get(address);
+		if (reference == null) {
+			reference = buckets.computeIfAbsent(address, key -> new AtomicReference<>(new Bucket(limit, now)));
+		}
+		while (true) {
+			Bucket bucket = reference.get();
+			double tokens = refill(bucket, now);
+			if (tokens < 1) {
+
+				// Empty bucket (the request is rejected)
+				return limit + 1;
+			}
+			tokens--;
+			if (reference.compareAndSet(bucket, new Bucket(tokens, Math.max(now, bucket.time)))) {
+
+				// Number of used tokens (including this request)
+				return limit - (long) tokens;
+			}
+		}
+	}
+
+	protected double refill(Bucket bucket, long now) {
+		long elapsed = now - bucket.time;
+		if (elapsed <= 0) {
+			return bucket.tokens;
+		}
+		return Math.min(limit, bucket.tokens + elapsed * rate);
+	}
+
+	/**
+	 * Returns the current value of the clock (can be overridden in tests).
+	 * 
+	 * @return current time, in nanoseconds
+	 */
+	protected long nanoTime() {
+		return System.nanoTime();
+	}
+
+	protected void cleanup(long now) {
+		long time = nextCleanup.get();
+		if (now - time >= 0 && nextCleanup.compareAndSet(time, now + windowNanos)) {
+			buckets.values().removeIf(reference -> refill(reference.get(), now) >= limit);
+		}
+	}
+
+}
@@ -0,0 +1,56 @@
+/**
+ * THIS SOFTWARE IS LICENSED UNDER MIT LICENSE.<br>
+ * <br>
+ * Copyright 2019 Andras Berkes [andras.berkes@programmer.net]<br>
+ * Based on Moleculer Framework for NodeJS [https://moleculer.services].
+ * <br><br>
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:<br>
+ * <br>
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.<br>
+ * <br>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package services.moleculer.web.netty;
+
+import io.netty.channel.ChannelHandlerContext;
+import services.moleculer.ServiceBroker;
+import services.moleculer.web.ApiGateway;
+
+/**
+ * Request handler of an HTTP/2 stream (the stream frames are converted into
+ * HTTP/1.1 request objects by the Http2StreamFrameToHttpObjectCodec).
+ */
+public class Http2Handler extends MoleculerHandler {
+
+	// --- CONSTRUCTOR ---
+
+	public Http2Handler(ApiGateway gateway, ServiceBroker broker, NettyWebSocketRegistry nettyWebSocketRegistry) {
+		super(gateway, broker, nettyWebSocketRegistry, true);
+	}
+
+	// --- CREATE RESPONSE ---
+
+	@Override
+	protected NettyWebResponse createResponse(ChannelHandlerContext ctx, NettyWebRequest req) {
+		if (queue == null) {
+			queue = new ResponseQueue(ctx.channel(), MAX_PIPELINED_REQUESTS);
+		}
+		NettyWebResponse response = new Http2WebResponse(ctx, req, queue);
+		queue.add(response);
+		return response;
+	}
+
+}
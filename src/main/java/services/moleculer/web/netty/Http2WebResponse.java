@@ -0,0 +1,178 @@
+/**
+ * THIS SOFTWARE IS LICENSED UNDER MIT LICENSE.<br>
+ * <br>
+ * Copyright 2019 Andras Berkes [andras.berkes@programmer.net]<br>
+ * Based on Moleculer Framework for NodeJS [https://moleculer.services].
+ * <br><br>
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:<br>
+ * <br>
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.<br>
+ * <br>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package services.moleculer.web.netty;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.Map;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.handler.codec.http.HttpChunkedInput;
+import io.netty.handler.codec.http2.DefaultHttp2DataFrame;
+import io.netty.handler.codec.http2.DefaultHttp2Headers;
+import io.netty.handler.codec.http2.DefaultHttp2HeadersFrame;
+import io.netty.handler.codec.http2.Http2Headers;
+import io.netty.handler.stream.ChunkedNioFile;
+import io.netty.handler.stream.ChunkedWriteHandler;
+
+/**
+ * WebResponse of an HTTP/2 stream. Writes HEADERS and DATA frames instead of
+ * HTTP/1.1 messages (the connection-specific HTTP/1.1 headers, like
+ * "Connection" or "Transfer-Encoding", are not sent).
+ */
+public class Http2WebResponse extends NettyWebResponse {
+
+	// --- CONSTRUCTOR ---
+
+	public Http2WebResponse(ChannelHandlerContext ctx, NettyWebRequest req, ResponseQueue queue) {
+		super(ctx, req, queue, true);
+	}
+
+	// --- WRITE HEADERS AND BODY ---
+
+	@Override
+	protected void flush(boolean last) {
+		if (!isBodyAllowed()) {
+
+			// Drop the body (eg. HEAD request), send headers at the end
+			releaseBuffer();
+			if (!last) {
+				return;
+			}
+		}
+		int size = buffer == null ? 0 : buffer.readableBytes();
+		try {
+			if (!committed) {
+				committed = true;
+				boolean endStream = last && size == 0;
+				ctx.write(new DefaultHttp2HeadersFrame(encodeHttp2Headers(last, size), endStream));
+				if (endStream) {
+					releaseBuffer();
+					ctx.flush();
+					return;
+				}
+			}
+			ByteBuf data = buffer == null ? Unpooled.EMPTY_BUFFER : buffer;
+			buffer = null;
+			ctx.writeAndFlush(new DefaultHttp2DataFrame(data, last));
+		} catch (Exception ignored) {
+		}
+	}
+
+	// --- SEND BUFFER ---
+
+	@Override
+	public boolean sendBuffer(ByteBuffer body) {
+		synchronized (lock()) {
+			if (committed || ended || buffer != null) {
+				return false;
+			}
+			if (endWithoutBody(body.remaining())) {
+				return true;
+			}
+			ByteBuf content = Unpooled.wrappedBuffer(body);
+			setHeader(CONTENT_LENGTH, Integer.toString(content.readableBytes()));
+			ended = true;
+			committed = true;
+			try {
+				ctx.write(new DefaultHttp2HeadersFrame(encodeHttp2Headers(false, 0), false));
+				ctx.writeAndFlush(new DefaultHttp2DataFrame(content, true));
+			} catch (Exception ignored) {
+			}
+			queue.remove(this);
+			return true;
+		}
+	}
+
+	// --- SEND FILE ---
+
+	/**
+	 * Sends a region of a local file in DATA frames (HTTP/2 streams do not
+	 * support FileRegions). The chunks are read when the stream is writable,
+	 * and converted into DATA frames by the Http2StreamFrameToHttpObjectCodec.
+	 */
+	@Override
+	public boolean sendFile(File file, long offset, long length) throws IOException {
+		synchronized (lock()) {
+			if (committed || ended || buffer != null || ctx.pipeline().get(ChunkedWriteHandler.class) == null) {
+				return false;
+			}
+			if (endWithoutBody(length)) {
+				return true;
+			}
+			RandomAccessFile raf = new RandomAccessFile(file, "r");
+			ended = true;
+			try {
+				setHeader(CONTENT_LENGTH, Long.toString(length));
+				committed = true;
+				ctx.write(new DefaultHttp2HeadersFrame(encodeHttp2Headers(false, 0), false));
+				ChunkedNioFile chunks = new ChunkedNioFile(raf.getChannel(), offset, length, FILE_CHUNK_SIZE);
+				ctx.writeAndFlush(new HttpChunkedInput(chunks)).addListener(future -> {
+					if (!future.isSuccess()) {
+						ctx.close();
+					}
+					queue.remove(this);
+				});
+			} catch (Exception cause) {
+				raf.close();
+				ctx.close();
+				throw cause instanceof IOException ? (IOException) cause : new IOException(cause);
+			}
+			return true;
+		}
+	}
+
+	// --- HTTP/2 HEADERS ---
+
+	protected Http2Headers encodeHttp2Headers(boolean last, int size) {
+		Http2Headers http2Headers = new DefaultHttp2Headers();
+		http2Headers.status(Integer.toString(code));
+		boolean contentLength = false;
+		if (headers != null) {
+			String name;
+			for (Map.Entry<String, String> entry : headers.entrySet()) {
+				name = entry.getKey().toLowerCase();
+				if ("connection".equals(name) || "keep-alive".equals(name) || "transfer-encoding".equals(name)
+						|| "upgrade".equals(name) || "proxy-connection".equals(name)) {
+					continue;
+				}
+				if ("content-length".equals(name)) {
+					contentLength = true;
+				}
+				http2Headers.add(name, entry.getValue());
+			}
+		}
+		if (last && !contentLength && isBodyAllowed()) {
+			http2Headers.set("content-length", Integer.toString(size));
+		}
+		return http2Headers;
+	}
+
+}
@@ -27,6 +27,7 @@ package services.moleculer.web.netty;
 
 import static services.moleculer.web.common.GatewayUtils.sendError;
 
+import java.io.IOException;
 import java.net.URLDecoder;
 
 import io.netty.buffer.ByteBuf;
@@ -51,11 +52,19 @@ import io.netty.handler.codec.http.websocketx.TextWebSocketFrame;
 import io.netty.handler.codec.http.websocketx.WebSocketFrame;
 import io.netty.handler.codec.http.websocketx.WebSocketServerHandshaker;
 import io.netty.handler.codec.http.websocketx.WebSocketServerHandshakerFactory;
+import io.netty.handler.timeout.IdleStateEvent;
 import services.moleculer.ServiceBroker;
 import services.moleculer.web.ApiGateway;
 
 public class MoleculerHandler extends SimpleChannelInboundHandler<Object> {
 
+	// --- CONSTANTS ---
+
+	/**
+	 * Max number of unanswered (pipelined) requests per connection.
+	 */
+	protected static final int MAX_PIPELINED_REQUESTS = 16;
+
 	// --- CHANNEL VARIABLES ---
 
 	protected final ApiGateway gateway;
@@ -64,6 +73,12 @@ public class MoleculerHandler extends SimpleChannelInboundHandler<Object> {
 	// --- PROCESSING VARIABLES ---
 
 	protected volatile NettyWebRequest req;
+	protected volatile NettyWebResponse rsp;
+
+	// --- KEEP-ALIVE AND PIPELINING ---
+
+	protected final boolean keepAlive;
+	protected volatile ResponseQueue queue;
 
 	// --- WEBSOCKET VARIABLES ---
 
@@ -75,9 +90,56 @@ public class MoleculerHandler extends SimpleChannelInboundHandler<Object> {
 	// --- CONSTRUCTOR ---
 
 	public MoleculerHandler(ApiGateway gateway, ServiceBroker broker, NettyWebSocketRegistry nettyWebSocketRegistry) {
+		this(gateway, broker, nettyWebSocketRegistry, true);
+	}
+
+	public MoleculerHandler(ApiGateway gateway, ServiceBroker broker, NettyWebSocketRegistry nettyWebSocketRegistry,
+			boolean keepAlive) {
 		this.gateway = gateway;
 		this.broker = broker;
 		this.webSocketRegistry = nettyWebSocketRegistry;
+		this.keepAlive = keepAlive;
+	}
+
+	// --- CLOSE IDLE CONNECTIONS ---
+
+	@Override
+	public void userEventTriggered(ChannelHandlerContext ctx, Object evt) throws Exception {
+		if (evt instanceof IdleStateEvent) {
+			if (handshaker == null && (queue == null || queue.isEmpty())) {
+				ctx.close();
+			}
+			return;
+		}
+		super.userEventTriggered(ctx, evt);
+	}
+
+	// --- RELEASE RESOURCES OF CLOSED CONNECTIONS ---
+
+	@Override
+	public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+
+		// Drop the queued (unsent) responses
+		ResponseQueue q = queue;
+		if (q != null) {
+			q.clear();
+		}
+
+		// Abort the unfinished request body
+		NettyWebRequest r = req;
+		if (r != null) {
+			if (r.stream != null && !r.stream.isClosed()) {
+				r.stream.sendError(new IOException("Connection closed by the client!"));
+			}
+			if (r.parser != null) {
+				try {
+					r.parser.close();
+				} catch (Exception ignored) {
+				}
+				r.parser = null;
+			}
+		}
+		super.channelInactive(ctx);
 	}
 
 	// --- PROCESS INCOMING HTTP REQUEST ---
@@ -103,7 +165,7 @@ public class MoleculerHandler extends SimpleChannelInboundHandler<Object> {
 				HttpHeaders httpHeaders = httpRequest.headers();
 
 				// Upgrade to WebSocket connection
-				if (httpHeaders.contains("Upgrade")) {
+				if (httpHeaders.containsValue("Upgrade", "websocket", true)) {
 
 					// Check access
 					webSocketRegistry.isRefused(ctx, httpRequest, httpHeaders, broker, path).then(refuse -> {
@@ -144,8 +206,14 @@ public class MoleculerHandler extends SimpleChannelInboundHandler<Object> {
 				}
 
 				req = new NettyWebRequest(ctx, httpRequest, httpHeaders, broker, path);
-				gateway.service(req, new NettyWebResponse(ctx, req));
-				return;
+				rsp = createResponse(ctx, req);
+				gateway.service(req, rsp);
+
+				// Request with body (eg. HTTP/2 HEADERS frame with END_STREAM
+				// flag, converted to FullHttpRequest) -> process the content
+				if (!(request instanceof HttpContent)) {
+					return;
+				}
 			}
 
 			// HTTP request -> content
@@ -232,7 +300,15 @@ public class MoleculerHandler extends SimpleChannelInboundHandler<Object> {
 			throw new IllegalStateException("Unknown package type: " + request);
 
 		} catch (Throwable cause) {
-			sendError(new NettyWebResponse(ctx, req), cause);
+			NettyWebResponse errorResponse = rsp;
+			if (errorResponse == null || errorResponse.req != req) {
+				errorResponse = createResponse(ctx, req);
+			}
+			if (errorResponse.isCommitted() || errorResponse.isEnded()) {
+				ctx.close();
+			} else {
+				sendError(errorResponse, cause);
+			}
 			if (broker == null) {
 				if (cause != null) {
 					cause.printStackTrace();
@@ -243,4 +319,15 @@ public class MoleculerHandler extends SimpleChannelInboundHandler<Object> {
 		}
 	}
 
-}
\ No newline at end of file
+	// --- CREATE RESPONSE ---
+
+	protected NettyWebResponse createResponse(ChannelHandlerContext ctx, NettyWebRequest req) {
+		if (queue == null) {
+			queue = new ResponseQueue(ctx.channel(), MAX_PIPELINED_REQUESTS);
+		}
+		NettyWebResponse response = new NettyWebResponse(ctx, req, queue, keepAlive);
+		queue.add(response);
+		return response;
+	}
+
+}
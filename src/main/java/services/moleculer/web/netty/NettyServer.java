@@ -30,13 +30,17 @@ import static services.moleculer.web.common.GatewayUtils.getService;
 
 import java.io.InputStream;
 import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
 import java.security.KeyStore;
 import java.security.cert.CertificateException;
 import java.security.cert.X509Certificate;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
-import java.util.concurrent.Executors;
+import java.util.List;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.net.ssl.KeyManagerFactory;
 import javax.net.ssl.ManagerFactoryParameters;
@@ -48,15 +52,33 @@ import javax.net.ssl.TrustManagerFactory;
 import javax.net.ssl.X509TrustManager;
 
 import io.netty.bootstrap.ServerBootstrap;
+import io.netty.buffer.ByteBuf;
 import io.netty.buffer.ByteBufAllocator;
 import io.netty.channel.Channel;
 import io.netty.channel.ChannelHandler;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
 import io.netty.channel.ChannelInitializer;
+import io.netty.channel.ChannelOption;
 import io.netty.channel.ChannelPipeline;
 import io.netty.channel.EventLoopGroup;
+import io.netty.channel.ServerChannel;
 import io.netty.channel.nio.NioEventLoopGroup;
 import io.netty.channel.socket.nio.NioServerSocketChannel;
+import io.netty.handler.codec.ByteToMessageDecoder;
 import io.netty.handler.codec.http.HttpRequestDecoder;
+import io.netty.handler.codec.http2.Http2FrameCodec;
+import io.netty.handler.codec.http2.Http2FrameCodecBuilder;
+import io.netty.handler.codec.http2.Http2MultiplexHandler;
+import io.netty.handler.codec.http2.Http2SecurityUtil;
+import io.netty.handler.codec.http2.Http2Settings;
+import io.netty.handler.codec.http2.Http2StreamFrameToHttpObjectCodec;
+import io.netty.handler.ssl.ApplicationProtocolConfig;
+import io.netty.handler.ssl.ApplicationProtocolConfig.Protocol;
+import io.netty.handler.ssl.ApplicationProtocolConfig.SelectedListenerFailureBehavior;
+import io.netty.handler.ssl.ApplicationProtocolConfig.SelectorFailureBehavior;
+import io.netty.handler.ssl.ApplicationProtocolNames;
+import io.netty.handler.ssl.ApplicationProtocolNegotiationHandler;
 import io.netty.handler.ssl.OpenSsl;
 import io.netty.handler.ssl.OpenSslServerContext;
 import io.netty.handler.ssl.OpenSslServerSessionContext;
@@ -64,13 +86,24 @@ import io.netty.handler.ssl.SslContext;
 import io.netty.handler.ssl.SslContextBuilder;
 import io.netty.handler.ssl.SslHandler;
 import io.netty.handler.ssl.SslProvider;
+import io.netty.handler.ssl.SupportedCipherSuiteFilter;
 import io.netty.handler.ssl.util.SimpleTrustManagerFactory;
+import io.netty.handler.stream.ChunkedWriteHandler;
+import io.netty.handler.timeout.IdleStateEvent;
+import io.netty.handler.timeout.IdleStateHandler;
 import services.moleculer.ServiceBroker;
 import services.moleculer.eventbus.Listener;
 import services.moleculer.eventbus.Subscribe;
 import services.moleculer.service.Service;
 import services.moleculer.web.ApiGateway;
 
+/**
+ * Netty-based HTTP server of the ApiGateway. Supports HTTP/1.x, WebSockets
+ * and (optionally) HTTP/2. Over SSL, HTTP/2 is negotiated via ALPN. Without
+ * SSL, only "prior knowledge" h2c connections are accepted: the HTTP/1.1
+ * "Upgrade: h2c" mechanism is not implemented, so these requests are served
+ * over HTTP/1.1.
+ */
 public class NettyServer extends Service {
 
 	// --- GATEWAY SERVICE ---
@@ -85,12 +118,89 @@ public class NettyServer extends Service {
 
 	protected EventLoopGroup threadGroup;
 
+	protected EventLoopGroup bossGroup;
+
 	protected ChannelHandler handler;
 
 	protected int webSocketCleanupSeconds = 15;
 
 	protected boolean shutDownThreadPools = true;
 
+	// --- KEEP-ALIVE ---
+
+	/**
+	 * Keep HTTP connections alive between requests.
+	 */
+	protected boolean keepAlive = true;
+
+	/**
+	 * Idle keep-alive connections are closed after this timeout (seconds, 0 =
+	 * never).
+	 */
+	protected int idleTimeout = 60;
+
+	// --- HTTP/2 ---
+
+	/**
+	 * Enable HTTP/2. With SSL the protocol is negotiated via ALPN ("h2" or
+	 * "http/1.1"), without SSL the server accepts HTTP/2 connections with
+	 * prior knowledge ("h2c") and HTTP/1.x connections on the same port
+	 * ("Upgrade: h2c" requests are not upgraded).
+	 */
+	protected boolean http2;
+
+	/**
+	 * Maximum number of concurrent streams per HTTP/2 connection.
+	 */
+	protected int http2MaxConcurrentStreams = 256;
+
+	// --- TRANSPORT AND THREADS ---
+
+	/**
+	 * Transport type ("auto", "io_uring", "epoll" or "nio"). The "auto" mode
+	 * uses the fastest native transport available on the current platform.
+	 * The "io_uring" transport requires the
+	 * "netty-incubator-transport-native-io_uring", the "epoll" transport
+	 * requires the "netty-transport-native-epoll" dependency (with the
+	 * classifier of the platform, eg. "linux-x86_64" or "linux-aarch_64").
+	 */
+	protected String transport = TRANSPORT_AUTO;
+
+	/**
+	 * Number of threads accepting new connections.
+	 */
+	protected int bossThreads = 1;
+
+	/**
+	 * Number of I/O threads (0 = number of CPU cores).
+	 */
+	protected int workerThreads;
+
+	/**
+	 * Number of listening sockets bound to the same port with SO_REUSEPORT
+	 * (each one uses its own boss thread, the kernel distributes the new
+	 * connections between them). Requires the "epoll" or "io_uring"
+	 * transport.
+	 */
+	protected int acceptors = 1;
+
+	/**
+	 * Connection counters of the listening sockets.
+	 */
+	protected volatile ConnectionCounter[] connectionCounters = new ConnectionCounter[0];
+
+	// --- TRANSPORT TYPES ---
+
+	public static final String TRANSPORT_AUTO = "auto";
+	public static final String TRANSPORT_IO_URING = "io_uring";
+	public static final String TRANSPORT_EPOLL = "epoll";
+	public static final String TRANSPORT_NIO = "nio";
+
+	// --- IO_URING AND EPOLL CLASSES (OPTIONAL DEPENDENCIES) ---
+
+	protected static final String IO_URING_PACKAGE = "io.netty.incubator.channel.uring.";
+	protected static final String EPOLL_PACKAGE = "io.netty.channel.epoll.";
+
 	// --- SSL PROPERTIES ---
 
 	protected boolean useSSL;
@@ -159,18 +269,33 @@ public class NettyServer extends Service {
 
 		// Worker group
 		if (threadGroup == null) {
-			threadGroup = new NioEventLoopGroup(1, Executors.newSingleThreadExecutor(r -> {
-				Thread t = new Thread(r, "Netty Server on port " + port + " (" + hashCode() + ")");
-				t.setPriority(Thread.MAX_PRIORITY - 1);
-				return t;
-			}));
+			String type = selectTransport();
+			int threads = workerThreads < 1 ? Runtime.getRuntime().availableProcessors() : workerThreads;
+			threadGroup = createEventLoopGroup(type, threads, "Worker");
+			logger.info("Netty Server uses the \"" + type + "\" transport with " + threads + " I/O threads.");
+		}
+
+		// Boss group (uses the worker group if it is not set and cannot be
+		// created, eg. the worker group is a custom EventLoopGroup)
+		String type = getTransport(threadGroup);
+		ChannelOption<Boolean> reusePort = acceptors > 1 ? getReusePortOption(type) : null;
+		int listeners = reusePort == null ? 1 : acceptors;
+		if (acceptors > 1 && reusePort == null) {
+			logger.warn("SO_REUSEPORT requires the \"epoll\" or \"io_uring\" transport, starting one acceptor.");
+		}
+		if (bossGroup == null) {
+			if (bossThreads < 1 || type == null) {
+				bossGroup = threadGroup;
+			} else {
+				bossGroup = createEventLoopGroup(type, Math.max(bossThreads, listeners), "Boss");
+			}
 		}
 
 		// Create request chain
 		ServerBootstrap bootstrap = new ServerBootstrap();
-		bootstrap.group(threadGroup, threadGroup);
+		bootstrap.group(bossGroup, threadGroup);
 
-		bootstrap.channel(NioServerSocketChannel.class);
+		bootstrap.channel(getServerChannelClass(threadGroup));
 
 		// Create webSocketRegistry
 		if (webSocketRegistry == null) {
@@ -190,9 +315,27 @@ public class NettyServer extends Service {
 					ChannelPipeline p = ch.pipeline();
 					if (useSSL) {
 						p.addLast("ssl", createSslHandler(ch));
+						if (http2) {
+							p.addLast("negotiator", new ApplicationProtocolNegotiationHandler(ApplicationProtocolNames.HTTP_1_1) {
+
+								@Override
+								protected void configurePipeline(ChannelHandlerContext ctx, String protocol)
+										throws Exception {
+									if (ApplicationProtocolNames.HTTP_2.equals(protocol)) {
+										addHttp2Handlers(ctx.pipeline());
+									} else {
+										addHttp1Handlers(ctx.pipeline());
+									}
+								}
+
+							});
+							return;
+						}
+					} else if (http2) {
+						p.addLast("detector", new Http2PrefaceDetector());
+						return;
 					}
-					p.addLast("decoder", new HttpRequestDecoder());
-					p.addLast("handler", new MoleculerHandler(gateway, broker, webSocketRegistry));
+					addHttp1Handlers(p);
 				}
 
 			};
@@ -201,23 +344,151 @@ public class NettyServer extends Service {
 		// Set child handler
 		bootstrap.childHandler(handler);
 
+		// Multiple listening sockets on the same port
+		if (reusePort != null) {
+			bootstrap.option(reusePort, true);
+		}
+
 		// Start server
+		ConnectionCounter[] counters = new ConnectionCounter[listeners];
+		for (int i = 0; i < listeners; i++) {
+			counters[i] = new ConnectionCounter();
+			ServerBootstrap acceptor = bootstrap.clone();
+			acceptor.handler(counters[i]);
+			if (address == null) {
+				acceptor.bind(port).get();
+			} else {
+				acceptor.bind(address, port).get();
+			}
+		}
+		connectionCounters = counters;
 		if (address == null) {
-			bootstrap.bind(port).get();
-			logger.info("Netty Server started at \"" + (useSSL ? "https" : "http") + "://localhost:" + port + "\".");
-		} else {
-			bootstrap.bind(address, port).get();
+			logger.info("Netty Server started at \"" + (useSSL ? "https" : "http") + "://localhost:" + port + "\""
+					+ (listeners > 1 ? " with " + listeners + " acceptors." : "."));
+		}
+	}
+
+	// --- HTTP/1.X AND HTTP/2 PIPELINES ---
+
+	protected void addHttp1Handlers(ChannelPipeline p) {
+		p.addLast("decoder", new HttpRequestDecoder());
+		if (idleTimeout > 0) {
+			p.addLast("idle", new IdleStateHandler(0, 0, idleTimeout));
+		}
+		if (useSSL) {
+
+			// Large files are sent in chunks under TLS (instead of FileRegions)
+			p.addLast("chunker", new ChunkedWriteHandler());
+		}
+		p.addLast("handler", new MoleculerHandler(gateway, broker, webSocketRegistry, keepAlive));
+	}
+
+	protected void addHttp2Handlers(ChannelPipeline p) {
+		if (idleTimeout > 0) {
+			p.addLast("idle", new IdleStateHandler(0, 0, idleTimeout));
+		}
+		Http2Settings settings = Http2Settings.defaultSettings().maxConcurrentStreams(http2MaxConcurrentStreams);
+		Http2FrameCodec codec = Http2FrameCodecBuilder.forServer().initialSettings(settings).build();
+		p.addLast("http2", codec);
+
+		// Each stream has its own child channel and request handler
+		p.addLast("multiplexer", new Http2MultiplexHandler(new ChannelInitializer<Channel>() {
+
+			@Override
+			protected void initChannel(Channel stream) throws Exception {
+				ChannelPipeline sp = stream.pipeline();
+				sp.addLast("codec", new Http2StreamFrameToHttpObjectCodec(true));
+				sp.addLast("chunker", new ChunkedWriteHandler());
+				sp.addLast("handler", new Http2Handler(gateway, broker, webSocketRegistry));
+			}
+
+		}));
+
+		// Close idle connections (without active streams)
+		if (idleTimeout > 0) {
+			p.addLast("closer", new ChannelInboundHandlerAdapter() {
+
+				@Override
+				public void userEventTriggered(ChannelHandlerContext ctx, Object evt) throws Exception {
+					if (evt instanceof IdleStateEvent) {
+						if (codec.connection().numActiveStreams() == 0) {
+							ctx.close();
+						}
+						return;
+					}
+					ctx.fireUserEventTriggered(evt);
+				}
+
+			});
 		}
 	}
 
+	// --- HTTP/2 PRIOR KNOWLEDGE DETECTOR ---
+
+	protected static final byte[] HTTP2_PREFACE = "PRI * HTTP/2.0\r\n\r\nSM\r\n\r\n"
+			.getBytes(StandardCharsets.US_ASCII);
+
+	/**
+	 * Checks the first bytes of a cleartext connection, and installs the
+	 * HTTP/2 handlers if the client sends the HTTP/2 connection preface
+	 * (otherwise the HTTP/1.x handlers). The received bytes are passed to the
+	 * installed handlers.
+	 */
+	protected class Http2PrefaceDetector extends ByteToMessageDecoder {
+
+		@Override
+		protected void decode(ChannelHandlerContext ctx, ByteBuf in, List<Object> out) throws Exception {
+			int len = Math.min(in.readableBytes(), HTTP2_PREFACE.length);
+			int start = in.readerIndex();
+			for (int i = 0; i < len; i++) {
+				if (in.getByte(start + i) != HTTP2_PREFACE[i]) {
+					addHttp1Handlers(ctx.pipeline());
+					ctx.pipeline().remove(this);
+					return;
+				}
+			}
+			if (len == HTTP2_PREFACE.length) {
+				addHttp2Handlers(ctx.pipeline());
+				ctx.pipeline().remove(this);
+			}
+		}
+
+	}
+
+	// --- CONNECTION COUNTER ---
+
+	/**
+	 * Counts the connections of a listening socket.
+	 */
+	protected static class ConnectionCounter extends ChannelInboundHandlerAdapter {
+
+		protected final AtomicLong accepted = new AtomicLong();
+		protected final AtomicInteger open = new AtomicInteger();
+
+		@Override
+		public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception {
+			if (msg instanceof Channel) {
+				accepted.incrementAndGet();
+				open.incrementAndGet();
+				((Channel) msg).closeFuture().addListener(future -> open.decrementAndGet());
+			}
+			ctx.fireChannelRead(msg);
+		}
+
+	}
+
 	// --- STOP NETTY SERVER ---
 
 	@Override
 	public void stopped() {
 		super.stopped();
+		if (bossGroup != null && bossGroup != threadGroup && shutDownThreadPools) {
+			bossGroup.shutdownGracefully();
+		}
 		if (threadGroup != null && shutDownThreadPools) {
 			threadGroup.shutdownGracefully();
 		}
+		bossGroup = null;
 		threadGroup = null;
 		handler = null;
 		if (webSocketRegistry != null) {
@@ -226,6 +497,126 @@ public class NettyServer extends Service {
 		}
 	}
 
+	// --- TRANSPORTS ---
+
+	protected String selectTransport() {
+		String type = transport == null ? TRANSPORT_AUTO : transport.trim().toLowerCase();
+		if (TRANSPORT_AUTO.equals(type)) {
+			if (isIOUringAvailable()) {
+				return TRANSPORT_IO_URING;
+			}
+			if (isEpollAvailable()) {
+				return TRANSPORT_EPOLL;
+			}
+			return TRANSPORT_NIO;
+		}
+		if (TRANSPORT_IO_URING.equals(type) && !isIOUringAvailable()) {
+			logger.warn("The \"io_uring\" transport is not available, using the \"nio\" transport.");
+			return TRANSPORT_NIO;
+		}
+		if (TRANSPORT_EPOLL.equals(type) && !isEpollAvailable()) {
+			logger.warn("The \"epoll\" transport is not available, using the \"nio\" transport.");
+			return TRANSPORT_NIO;
+		}
+		if (!TRANSPORT_IO_URING.equals(type) && !TRANSPORT_EPOLL.equals(type) && !TRANSPORT_NIO.equals(type)) {
+			throw new IllegalArgumentException("Invalid transport type (" + transport + ")!");
+		}
+		return type;
+	}
+
+	protected boolean isIOUringAvailable() {
+		return isAvailable(IO_URING_PACKAGE + "IOUring");
+	}
+
+	protected boolean isEpollAvailable() {
+		return isAvailable(EPOLL_PACKAGE + "Epoll");
+	}
+
+	protected boolean isAvailable(String className) {
+		try {
+			Class<?> transportClass = Class.forName(className);
+			return (Boolean) transportClass.getMethod("isAvailable").invoke(null);
+		} catch (Throwable notAvailable) {
+			return false;
+		}
+	}
+
+	protected EventLoopGroup createEventLoopGroup(String type, int threads, String name) throws Exception {
+		ThreadFactory factory = createThreadFactory(name);
+		String groupClassName;
+		if (TRANSPORT_IO_URING.equals(type)) {
+			groupClassName = IO_URING_PACKAGE + "IOUringEventLoopGroup";
+		} else if (TRANSPORT_EPOLL.equals(type)) {
+			groupClassName = EPOLL_PACKAGE + "EpollEventLoopGroup";
+		} else {
+			return new NioEventLoopGroup(threads, factory);
+		}
+		Class<?> groupClass = Class.forName(groupClassName);
+		return (EventLoopGroup) groupClass.getConstructor(int.class, ThreadFactory.class).newInstance(threads,
+				factory);
+	}
+
+	@SuppressWarnings("unchecked")
+	protected ChannelOption<Boolean> getReusePortOption(String type) {
+		String optionsClassName;
+		if (TRANSPORT_EPOLL.equals(type)) {
+			optionsClassName = EPOLL_PACKAGE + "EpollChannelOption";
+		} else if (TRANSPORT_IO_URING.equals(type)) {
+			optionsClassName = IO_URING_PACKAGE + "IOUringChannelOption";
+		} else {
+			return null;
+		}
+		try {
+			Class<?> options = Class.forName(optionsClassName);
+			return (ChannelOption<Boolean>) options.getField("SO_REUSEPORT").get(null);
+		} catch (Throwable notAvailable) {
+			return null;
+		}
+	}
+
+	protected ThreadFactory createThreadFactory(String name) {
+		AtomicInteger counter = new AtomicInteger();
+		return r -> {
+			Thread t = new Thread(r, "Netty " + name + " #" + counter.incrementAndGet() + " on port " + port + " ("
+					+ hashCode() + ")");
+			t.setPriority(Thread.MAX_PRIORITY - 1);
+			return t;
+		};
+	}
+
+	/**
+	 * Returns the transport type of an EventLoopGroup.
+	 * 
+	 * @param group
+	 *            EventLoopGroup
+	 * 
+	 * @return type of the transport, or null if it is unknown
+	 */
+	protected String getTransport(EventLoopGroup group) {
+		if (group instanceof NioEventLoopGroup) {
+			return TRANSPORT_NIO;
+		}
+		if (group.getClass().getName().startsWith(IO_URING_PACKAGE)) {
+			return TRANSPORT_IO_URING;
+		}
+		if (group.getClass().getName().startsWith(EPOLL_PACKAGE)) {
+			return TRANSPORT_EPOLL;
+		}
+		return null;
+	}
+
+	@SuppressWarnings("unchecked")
+	protected Class<? extends ServerChannel> getServerChannelClass(EventLoopGroup group) throws Exception {
+		String type = getTransport(group);
+		if (TRANSPORT_IO_URING.equals(type)) {
+			return (Class<? extends ServerChannel>) Class.forName(IO_URING_PACKAGE + "IOUringServerSocketChannel");
+		}
+		if (TRANSPORT_EPOLL.equals(type)) {
+			return (Class<? extends ServerChannel>) Class.forName(EPOLL_PACKAGE + "EpollServerSocketChannel");
+		}
+		return NioServerSocketChannel.class;
+	}
+
 	// --- SSL HANDLER ---
 
 	protected SslHandler createSslHandler(Channel ch) throws Exception {
@@ -280,6 +671,20 @@ public class NettyServer extends Service {
 			if (cipherSuites != null && cipherSuites.isEmpty()) {
 				builder.ciphers(cipherSuites);
 			}
+			if (http2) {
+
+				// HTTP/2 (with HTTP/1.1 fallback) via ALPN, with the cipher
+				// suites above that HTTP/2 allows (compared by their Java
+				// names)
+				Collection<String> javaCipherSuites = cipherSuites;
+				if (keyCertChainFilePath != null || keyFilePath != null) {
+					javaCipherSuites = OpenSsl.availableJavaCipherSuites();
+				}
+				builder.ciphers(getHttp2CipherSuites(javaCipherSuites), SupportedCipherSuiteFilter.INSTANCE);
+				builder.applicationProtocolConfig(new ApplicationProtocolConfig(Protocol.ALPN,
+						SelectorFailureBehavior.NO_ADVERTISE, SelectedListenerFailureBehavior.ACCEPT,
+						ApplicationProtocolNames.HTTP_2, ApplicationProtocolNames.HTTP_1_1));
+			}
 			if (trustManagerFactory == null) {
 				TrustManager[] mgrs = new TrustManager[] { new X509TrustManager() {
 
@@ -340,6 +745,33 @@ public class NettyServer extends Service {
 		return cachedSslContext;
 	}
 
+	/**
+	 * Filters the cipher suites by the list of HTTP/2 (RFC 7540, Appendix A
+	 * compliant) cipher suites, keeping the original order. If none of them
+	 * is allowed by HTTP/2, returns the default HTTP/2 cipher suites.
+	 * 
+	 * @param cipherSuites
+	 *            available (or enabled) cipher suites
+	 * 
+	 * @return cipher suites of HTTP/2 connections
+	 */
+	protected Collection<String> getHttp2CipherSuites(Collection<String> cipherSuites) {
+		if (cipherSuites == null || cipherSuites.isEmpty()) {
+			return Http2SecurityUtil.CIPHERS;
+		}
+		ArrayList<String> list = new ArrayList<>(cipherSuites.size());
+		for (String cipherSuite : cipherSuites) {
+			if (Http2SecurityUtil.CIPHERS.contains(cipherSuite)) {
+				list.add(cipherSuite);
+			}
+		}
+		if (list.isEmpty()) {
+			logger.warn("None of the cipher suites are allowed by HTTP/2, using the default HTTP/2 cipher suites.");
+			return Http2SecurityUtil.CIPHERS;
+		}
+		return list;
+	}
+
 	// --- GETTERS AND SETTERS ---
 
 	public int getWebSocketCleanupSeconds() {
@@ -438,6 +870,106 @@ public class NettyServer extends Service {
 		this.threadGroup = singletonGroup;
 	}
 
+	public boolean isKeepAlive() {
+		return keepAlive;
+	}
+
+	public void setKeepAlive(boolean keepAlive) {
+		this.keepAlive = keepAlive;
+	}
+
+	public int getIdleTimeout() {
+		return idleTimeout;
+	}
+
+	public void setIdleTimeout(int idleTimeout) {
+		this.idleTimeout = idleTimeout;
+	}
+
+	public boolean isHttp2() {
+		return http2;
+	}
+
+	public void setHttp2(boolean http2) {
+		this.http2 = http2;
+	}
+
+	public int getHttp2MaxConcurrentStreams() {
+		return http2MaxConcurrentStreams;
+	}
+
+	public void setHttp2MaxConcurrentStreams(int http2MaxConcurrentStreams) {
+		this.http2MaxConcurrentStreams = http2MaxConcurrentStreams;
+	}
+
+	public int getAcceptors() {
+		return acceptors;
+	}
+
+	public void setAcceptors(int acceptors) {
+		this.acceptors = acceptors;
+	}
+
+	/**
+	 * Returns the number of accepted connections per listening socket.
+	 * 
+	 * @return number of accepted connections (since startup)
+	 */
+	public long[] getAcceptedConnections() {
+		ConnectionCounter[] counters = connectionCounters;
+		long[] values = new long[counters.length];
+		for (int i = 0; i < counters.length; i++) {
+			values[i] = counters[i].accepted.get();
+		}
+		return values;
+	}
+
+	/**
+	 * Returns the number of open connections per listening socket.
+	 * 
+	 * @return number of open connections
+	 */
+	public int[] getOpenConnections() {
+		ConnectionCounter[] counters = connectionCounters;
+		int[] values = new int[counters.length];
+		for (int i = 0; i < counters.length; i++) {
+			values[i] = counters[i].open.get();
+		}
+		return values;
+	}
+
+	public EventLoopGroup getBossGroup() {
+		return bossGroup;
+	}
+
+	public void setBossGroup(EventLoopGroup bossGroup) {
+		this.bossGroup = bossGroup;
+	}
+
+	public String getTransport() {
+		return transport;
+	}
+
+	public void setTransport(String transport) {
+		this.transport = transport;
+	}
+
+	public int getBossThreads() {
+		return bossThreads;
+	}
+
+	public void setBossThreads(int bossThreads) {
+		this.bossThreads = bossThreads;
+	}
+
+	public int getWorkerThreads() {
+		return workerThreads;
+	}
+
+	public void setWorkerThreads(int workerThreads) {
+		this.workerThreads = workerThreads;
+	}
+
 	public ChannelHandler getHandler() {
 		return handler;
 	}
@@ -25,28 +25,89 @@
  */
 package services.moleculer.web.netty;
 
+import java.io.File;
 import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
 import java.util.HashMap;
 import java.util.Map;
-import java.util.concurrent.atomic.AtomicBoolean;
 
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufUtil;
 import io.netty.buffer.Unpooled;
 import io.netty.channel.Channel;
+import io.netty.channel.ChannelFuture;
 import io.netty.channel.ChannelFutureListener;
 import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.DefaultFileRegion;
 import io.netty.handler.codec.http.HttpResponseStatus;
+import io.netty.handler.codec.http.HttpVersion;
+import io.netty.handler.ssl.SslHandler;
+import io.netty.handler.stream.ChunkedNioFile;
+import io.netty.handler.stream.ChunkedWriteHandler;
 import services.moleculer.web.WebResponse;
 import services.moleculer.web.common.HttpConstants;
 
 public class NettyWebResponse implements WebResponse, HttpConstants {
 
+	// --- PRE-ENCODED STATUS LINES AND HEADER NAMES ---
+
+	protected static final byte[][] STATUS_LINES = new byte[600][];
+
+	protected static final HashMap<String, byte[]> HEADER_NAMES = new HashMap<>();
+
+	protected static final byte[] CRLF = { '\r', '\n' };
+
+	protected static final byte[] LAST_CHUNK = { '0', '\r', '\n', '\r', '\n' };
+
+	static {
+		int[] codes = { 100, 101, 200, 201, 202, 204, 206, 301, 302, 303, 304, 307, 308, 400, 401, 403, 404, 405, 406,
+				408, 409, 410, 411, 412, 413, 415, 416, 429, 500, 501, 502, 503, 504 };
+		for (int code : codes) {
+			STATUS_LINES[code] = encodeStatusLine(code);
+		}
+		String[] names = { CONTENT_TYPE, CONTENT_LENGTH, CONNECTION, CONTENT_ENCODING, ETAG, SET_COOKIE, CACHE_CONTROL,
+				LOCATION, WWW_AUTHENTICATE, TRANSFER_ENCODING, "Last-Modified", "Vary", "Accept-Ranges",
+				"Content-Range", "Expires", "Date", "Access-Control-Allow-Origin" };
+		for (String name : names) {
+			HEADER_NAMES.put(name, (name + ": ").getBytes(StandardCharsets.US_ASCII));
+		}
+	}
+
+	protected static final byte[] encodeStatusLine(int code) {
+		return ("HTTP/1.1 " + HttpResponseStatus.valueOf(code) + "\r\n").getBytes(StandardCharsets.US_ASCII);
+	}
+
+	// --- BUFFERING ---
+
+	/**
+	 * The response is flushed when the size of the buffered data reaches this
+	 * limit (or at the end of the response).
+	 */
+	protected static final int FLUSH_THRESHOLD = 64 * 1024;
+
+	/**
+	 * Size of the chunks of the files sent with ChunkedNioFile (under TLS).
+	 */
+	protected static final int FILE_CHUNK_SIZE = 64 * 1024;
+
 	// --- REQUEST PROPERTIES ----
 
 	protected final ChannelHandlerContext ctx;
 	protected final NettyWebRequest req;
 	protected final Channel channel;
 
+	/**
+	 * Response queue of the connection (for pipelined requests).
+	 */
+	protected final ResponseQueue queue;
+
+	/**
+	 * Keep the connection alive after the response.
+	 */
+	protected final boolean keepAlive;
+
 	/**
 	 * Custom properties (for inter-middleware communication).
 	 */
@@ -56,14 +117,45 @@ public class NettyWebResponse implements WebResponse, HttpConstants {
 
 	protected int code = 200;
 	protected HashMap<String, String> headers;
-	protected AtomicBoolean first = new AtomicBoolean(true);
 
-	// --- CONSTRUCTOR ---
+	/**
+	 * Pooled (direct) buffer of the unsent body.
+	 */
+	protected ByteBuf buffer;
+
+	/**
+	 * Headers are sent.
+	 */
+	protected boolean committed;
+
+	/**
+	 * Body is sent with chunked transfer encoding (the length of the body is
+	 * unknown).
+	 */
+	protected boolean chunked;
+
+	/**
+	 * Close connection after the response.
+	 */
+	protected boolean close;
+
+	/**
+	 * The end() method is called.
+	 */
+	protected volatile boolean ended;
+
+	// --- CONSTRUCTORS ---
 
 	public NettyWebResponse(ChannelHandlerContext ctx, NettyWebRequest req) {
+		this(ctx, req, null, true);
+	}
+
+	public NettyWebResponse(ChannelHandlerContext ctx, NettyWebRequest req, ResponseQueue queue, boolean keepAlive) {
 		this.ctx = ctx;
 		this.req = req;
 		this.channel = ctx.channel();
+		this.queue = queue;
+		this.keepAlive = keepAlive;
 	}
 
 	// --- PUBLIC WEBRESPONSE METHODS ---
@@ -143,12 +235,19 @@ public class NettyWebResponse implements WebResponse, HttpConstants {
 	@Override
 	public void send(byte[] bytes) throws IOException {
 		if (bytes != null && bytes.length > 0) {
-			if (!channel.isOpen()) {
-				throw new IOException("Socket closed!");
+			synchronized (lock()) {
+				if (!channel.isOpen()) {
+					releaseBuffer();
+					throw new IOException("Socket closed!");
+				}
+				if (buffer == null) {
+					buffer = ctx.alloc().ioBuffer(bytes.length);
+				}
+				buffer.writeBytes(bytes);
+				if (queue == null || queue.isFirst(this)) {
+					flushIfFull();
+				}
 			}
-			sendHeaders();
-			ctx.write(Unpooled.wrappedBuffer(bytes));
-			ctx.flush();
 		}
 	}
 
@@ -159,7 +258,17 @@ public class NettyWebResponse implements WebResponse, HttpConstants {
 	 */
 	@Override
 	public boolean end() {
-		sendHeaders();
+		synchronized (lock()) {
+			if (!ended) {
+				ended = true;
+				if (queue == null) {
+					flush(true);
+				} else if (queue.isFirst(this)) {
+					flush(true);
+					queue.remove(this);
+				}
+			}
+		}
 		if (req != null && req.parser != null) {
 			try {
 				req.parser.close();
@@ -168,43 +277,306 @@ public class NettyWebResponse implements WebResponse, HttpConstants {
 			req.parser = null;
 			return true;
 		}
-		try {
-			boolean close = headers.get(CONTENT_LENGTH) == null;
-			if (!close) {
-				String connection = req.getHeader(CONNECTION);
-				close = connection != null && CLOSE.equalsIgnoreCase(connection);
+		return false;
+	}
+
+	// --- SEND BUFFER ---
+
+	/**
+	 * Sends the content of a (direct) ByteBuffer as the body, and completes
+	 * the response. The buffer is written to the channel without copying
+	 * (the caller must not modify its content).
+	 * 
+	 * @param body
+	 *            the body (between its position and limit)
+	 * 
+	 * @return true if the body is sent (or queued), false if the response has
+	 *         already been committed or the body is not empty
+	 */
+	public boolean sendBuffer(ByteBuffer body) {
+		synchronized (lock()) {
+			if (committed || ended || buffer != null) {
+				return false;
 			}
-			if (close) {
-				ctx.flush();
-				ctx.writeAndFlush(Unpooled.EMPTY_BUFFER).addListener(ChannelFutureListener.CLOSE);
+			if (endWithoutBody(body.remaining())) {
+				return true;
+			}
+			ByteBuf content = Unpooled.wrappedBuffer(body);
+			setHeader(CONTENT_LENGTH, Integer.toString(content.readableBytes()));
+			ended = true;
+			if (queue != null && !queue.isFirst(this)) {
+
+				// Sent after the previous (pipelined) responses
+				buffer = content;
+				return true;
+			}
+			committed = true;
+			try {
+				ctx.write(encodeHeaders(false, 0));
+				ChannelFuture future = ctx.writeAndFlush(content);
+				if (close) {
+					future.addListener(ChannelFutureListener.CLOSE);
+				}
+			} catch (Exception ignored) {
+			}
+			if (queue != null) {
+				queue.remove(this);
+			}
+			return true;
+		}
+	}
+
+	// --- SEND FILE ---
+
+	/**
+	 * Sends a region of a local file as the body, and completes the response.
+	 * The file is transferred directly by the channel, without copying it
+	 * through the heap: with FileRegion ("sendfile") on plain connections, or
+	 * in chunks with ChunkedNioFile under TLS. The transfer follows the
+	 * writability of the channel (the file is not read faster than the client
+	 * receives it).
+	 * 
+	 * @param file
+	 *            local file
+	 * @param offset
+	 *            position of the first byte
+	 * @param length
+	 *            number of bytes to send
+	 * 
+	 * @return true if the transfer is started, false if the response has
+	 *         already been committed or the file cannot be sent directly (in
+	 *         this case nothing is written)
+	 * 
+	 * @throws IOException
+	 *             if an I/O error occurs
+	 */
+	public boolean sendFile(File file, long offset, long length) throws IOException {
+		synchronized (lock()) {
+			if (committed || ended || buffer != null || (queue != null && !queue.isFirst(this))) {
+				return false;
+			}
+			boolean ssl = ctx.pipeline().get(SslHandler.class) != null;
+			if (ssl && ctx.pipeline().get(ChunkedWriteHandler.class) == null) {
+				return false;
+			}
+			if (endWithoutBody(length)) {
+				return true;
+			}
+			RandomAccessFile raf = new RandomAccessFile(file, "r");
+			ended = true;
+			try {
+				setHeader(CONTENT_LENGTH, Long.toString(length));
+				committed = true;
+				ctx.write(encodeHeaders(false, 0));
+				Object body;
+				if (ssl) {
+					body = new ChunkedNioFile(raf.getChannel(), offset, length, FILE_CHUNK_SIZE);
+				} else {
+					body = new DefaultFileRegion(raf.getChannel(), offset, length);
+				}
+				ctx.writeAndFlush(body).addListener(future -> {
+					if (close || !future.isSuccess()) {
+						ctx.close();
+					}
+					if (queue != null) {
+						queue.remove(this);
+					}
+				});
+			} catch (Exception cause) {
+				raf.close();
+				ctx.close();
+				throw cause instanceof IOException ? (IOException) cause : new IOException(cause);
+			}
+			return true;
+		}
+	}
+
+	protected Object lock() {
+		return queue == null ? this : queue;
+	}
+
+	// --- RESPONSES WITHOUT BODY ---
+
+	/**
+	 * Responses to HEAD requests, and the 1xx, 204 and 304 responses have no
+	 * body and no body framing (RFC 7230, section 3.3.3).
+	 * 
+	 * @return true if the response can contain a body
+	 */
+	protected boolean isBodyAllowed() {
+		return code >= 200 && code != 204 && code != 304 && (req == null || !HEAD.equals(req.getMethod()));
+	}
+
+	/**
+	 * Completes the response without the body if the response can not
+	 * contain a body. The "Content-Length" of the response to a HEAD request
+	 * is the length of the omitted body.
+	 * 
+	 * @param length
+	 *            length of the (omitted) body
+	 * 
+	 * @return true if the response is completed
+	 */
+	protected boolean endWithoutBody(long length) {
+		if (isBodyAllowed()) {
+			return false;
+		}
+		if (code >= 200 && code != 204 && code != 304 && !containsHeader(CONTENT_LENGTH)) {
+			setHeader(CONTENT_LENGTH, Long.toString(length));
+		}
+		end();
+		return true;
+	}
+
+	// --- WRITE HEADERS AND BODY ---
+
+	protected void flushIfFull() {
+		if (buffer != null && buffer.readableBytes() >= FLUSH_THRESHOLD) {
+			flush(false);
+		}
+	}
+
+	/**
+	 * Writes the buffered data of the response. If the length of the body is
+	 * unknown, and the whole body is in the buffer at the end of the
+	 * response, the "Content-Length" header is generated. Otherwise the body
+	 * is sent with chunked transfer encoding (HTTP/1.1) or the connection is
+	 * closed at the end of the response (HTTP/1.0).
+	 * 
+	 * @param last
+	 *            this is the end of the response
+	 */
+	protected void flush(boolean last) {
+		if (!isBodyAllowed()) {
+
+			// Drop the body (eg. HEAD request), send headers at the end
+			releaseBuffer();
+			if (!last) {
+				return;
+			}
+		}
+		int size = buffer == null ? 0 : buffer.readableBytes();
+		ByteBuf out;
+		if (!committed) {
+			committed = true;
+			out = encodeHeaders(last, size);
+		} else if (!chunked && buffer != null) {
+			out = buffer;
+			buffer = null;
+		} else {
+			out = ctx.alloc().ioBuffer(size + 16);
+		}
+		if (buffer != null) {
+			if (chunked && size > 0) {
+				ByteBufUtil.writeAscii(out, Integer.toHexString(size));
+				out.writeBytes(CRLF);
+				out.writeBytes(buffer);
+				out.writeBytes(CRLF);
+			} else {
+				out.writeBytes(buffer);
+			}
+			releaseBuffer();
+		}
+		if (last && chunked) {
+			out.writeBytes(LAST_CHUNK);
+		}
+		try {
+			ChannelFuture future = ctx.writeAndFlush(out);
+			if (last && close) {
+				future.addListener(ChannelFutureListener.CLOSE);
 			}
 		} catch (Exception ignored) {
 		}
-		return false;
 	}
 
-	protected void sendHeaders() {
-		if (first.compareAndSet(true, false)) {
-			StringBuilder header = new StringBuilder(512);
-			if (code == 200) {
-				header.append("HTTP/1.1 200 Ok\r\n");
+	protected ByteBuf encodeHeaders(boolean last, int size) {
+
+		// Length of the body
+		boolean http10 = req != null && HttpVersion.HTTP_1_0.equals(req.httpVersion);
+		String connection = req == null ? null : req.getHeader(CONNECTION);
+		close = !keepAlive || (connection != null && CLOSE.equalsIgnoreCase(connection))
+				|| (http10 && (connection == null || !KEEP_ALIVE.equalsIgnoreCase(connection)));
+		if (isBodyAllowed() && !containsHeader(CONTENT_LENGTH) && !containsHeader(TRANSFER_ENCODING)) {
+			if (last) {
+				setHeader(CONTENT_LENGTH, Integer.toString(size));
+			} else if (http10) {
+				close = true;
 			} else {
-				header.append("HTTP/1.1 ");
-				header.append(HttpResponseStatus.valueOf(code));
-				header.append("\r\n");
+				setHeader(TRANSFER_ENCODING, CHUNKED);
+				chunked = true;
 			}
-			if (headers != null) {
-				for (Map.Entry<String, String> entry : headers.entrySet()) {
-					header.append(entry.getKey());
-					header.append(": ");
-					header.append(entry.getValue());
-					header.append("\r\n");
+		}
+		if (close) {
+			setHeader(CONNECTION, CLOSE);
+		} else if (http10) {
+			setHeader(CONNECTION, KEEP_ALIVE);
+		}
+
+		// Status line
+		if (headers == null) {
+			headers = new HashMap<>();
+		}
+		ByteBuf header = ctx.alloc().ioBuffer(512 + size);
+		byte[] bytes = code > 0 && code < STATUS_LINES.length ? STATUS_LINES[code] : null;
+		if (bytes == null) {
+			bytes = encodeStatusLine(code);
+		}
+		header.writeBytes(bytes);
+
+		// Headers
+		for (Map.Entry<String, String> entry : headers.entrySet()) {
+			bytes = HEADER_NAMES.get(entry.getKey());
+			if (bytes == null) {
+				ByteBufUtil.writeUtf8(header, entry.getKey());
+				header.writeByte(':');
+				header.writeByte(' ');
+			} else {
+				header.writeBytes(bytes);
+			}
+			ByteBufUtil.writeUtf8(header, entry.getValue());
+			header.writeBytes(CRLF);
+		}
+		header.writeBytes(CRLF);
+		return header;
+	}
+
+	protected boolean containsHeader(String name) {
+		if (headers != null) {
+			for (String key : headers.keySet()) {
+				if (key.equalsIgnoreCase(name)) {
+					return true;
 				}
 			}
-			header.append("\r\n");
-			ctx.write(Unpooled.wrappedBuffer(header.toString().getBytes(StandardCharsets.UTF_8)));
-			ctx.flush();
 		}
+		return false;
+	}
+
+	protected void releaseBuffer() {
+		if (buffer != null) {
+			buffer.release();
+			buffer = null;
+		}
+	}
+
+	/**
+	 * Drops the unsent data (the connection is closed).
+	 */
+	protected void discard() {
+		synchronized (lock()) {
+			ended = true;
+			committed = true;
+			releaseBuffer();
+		}
+	}
+
+	// --- STATE ---
+
+	public boolean isCommitted() {
+		return committed;
+	}
+
+	public boolean isEnded() {
+		return ended;
 	}
 
 	// --- CUSTOM PROPERTIES ---
@@ -239,6 +611,11 @@ public class NettyWebResponse implements WebResponse, HttpConstants {
 	 */
 	@Override
 	public Object getProperty(String name) {
+		if (PROPERTY_DISCONNECTED.equals(name)) {
+
+			// State of the channel (HTTP/2: state of the stream)
+			return !channel.isActive();
+		}
 		if (properties == null) {
 			return null;
 		}
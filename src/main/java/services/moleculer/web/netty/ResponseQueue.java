@@ -0,0 +1,126 @@
+/**
+ * THIS SOFTWARE IS LICENSED UNDER MIT LICENSE.<br>
+ * <br>
+ * Copyright 2019 Andras Berkes [andras.berkes@programmer.net]<br>
+ * Based on Moleculer Framework for NodeJS [https://moleculer.services].
+ * <br><br>
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:<br>
+ * <br>
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.<br>
+ * <br>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package services.moleculer.web.netty;
+
+import java.util.LinkedList;
+
+import io.netty.channel.Channel;
+
+/**
+ * Response queue of a keep-alive connection. HTTP/1.1 clients may send
+ * multiple (pipelined) requests without waiting for the responses, but the
+ * responses must be sent in the order of the requests. Responses of the
+ * subsequent requests are buffered until the previous responses are
+ * completed.
+ */
+public class ResponseQueue {
+
+	// --- PROPERTIES ---
+
+	protected final Channel channel;
+
+	/**
+	 * Max number of queued requests (reading from the socket is suspended if
+	 * the queue is full).
+	 */
+	protected final int maxPipelinedRequests;
+
+	// --- QUEUED RESPONSES ---
+
+	protected final LinkedList<NettyWebResponse> responses = new LinkedList<>();
+
+	// --- CONSTRUCTOR ---
+
+	public ResponseQueue(Channel channel, int maxPipelinedRequests) {
+		this.channel = channel;
+		this.maxPipelinedRequests = maxPipelinedRequests;
+	}
+
+	// --- ADD RESPONSE ---
+
+	public synchronized void add(NettyWebResponse rsp) {
+		responses.addLast(rsp);
+		if (responses.size() >= maxPipelinedRequests) {
+			channel.config().setAutoRead(false);
+		}
+	}
+
+	// --- CHECK ORDER ---
+
+	public synchronized boolean isFirst(NettyWebResponse rsp) {
+		return responses.peekFirst() == rsp;
+	}
+
+	public synchronized boolean isEmpty() {
+		return responses.isEmpty();
+	}
+
+	// --- REMOVE COMPLETED RESPONSE ---
+
+	/**
+	 * Removes the completed (first) response, and sends the buffered data of
+	 * the next responses.
+	 * 
+	 * @param rsp
+	 *            the completed response
+	 */
+	public synchronized void remove(NettyWebResponse rsp) {
+		if (responses.peekFirst() != rsp) {
+			responses.remove(rsp);
+			return;
+		}
+		responses.removeFirst();
+		NettyWebResponse next;
+		while ((next = responses.peekFirst()) != null) {
+			if (!next.ended) {
+				next.flushIfFull();
+				break;
+			}
+			next.flush(true);
+			responses.removeFirst();
+		}
+		if (responses.size() < maxPipelinedRequests && !channel.config().isAutoRead()) {
+			channel.config().setAutoRead(true);
+		}
+	}
+
+	// --- CLOSE CONNECTION ---
+
+	/**
+	 * Discards the queued responses and releases their buffers (invoked when
+	 * the connection is closed, the responses can not be sent).
+	 */
+	public synchronized void clear() {
+		for (NettyWebResponse rsp : responses) {
+			rsp.discard();
+		}
+		responses.clear();
+		if (!channel.config().isAutoRead()) {
+			channel.config().setAutoRead(true);
+		}
+	}
+
+}
@@ -25,6 +25,7 @@
  */
 package services.moleculer.web.router;
 
+import static services.moleculer.web.common.GatewayUtils.isDisconnected;
 import static services.moleculer.web.common.GatewayUtils.sendError;
 
 import java.io.ByteArrayOutputStream;
@@ -37,14 +38,11 @@ import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import io.datatree.Tree;
-import io.datatree.dom.Cache;
 import io.datatree.dom.TreeWriter;
 import io.datatree.dom.TreeWriterRegistry;
 import services.moleculer.config.ServiceBrokerConfig;
@@ -77,8 +75,7 @@ public class ActionInvoker implements RequestProcessor, HttpConstants {
 	// --- PROPERTIES ---
 
 	protected final String actionName;
-	protected final Pattern pattern;
-	protected final Cache<String, Matcher> cache;
+	protected final PathPattern pattern;
 	protected final IndexedVariable[] variables;
 	protected final CallOptions.Options opts;
 	protected final String nodeID;
@@ -102,13 +99,12 @@ public class ActionInvoker implements RequestProcessor, HttpConstants {
 
 	// --- CONSTRUCTOR ---
 
-	public ActionInvoker(String actionName, Pattern pattern, Cache<String, Matcher> cache, IndexedVariable[] variables,
-			Options opts, ServiceInvoker serviceInvoker, AbstractTemplateEngine templateEngine, Route route,
-			CallProcessor beforeCall, CallProcessor afterCall, ExecutorService executor, Eventbus eventbus) {
+	public ActionInvoker(String actionName, PathPattern pattern, Options opts, ServiceInvoker serviceInvoker,
+			AbstractTemplateEngine templateEngine, Route route, CallProcessor beforeCall, CallProcessor afterCall,
+			ExecutorService executor, Eventbus eventbus) {
 		this.actionName = actionName;
 		this.pattern = pattern;
-		this.cache = cache;
-		this.variables = variables;
+		this.variables = pattern == null ? null : pattern.getVariables();
 		this.opts = opts;
 		this.serviceInvoker = serviceInvoker;
 		this.templateEngine = templateEngine;
@@ -152,26 +148,22 @@ public class ActionInvoker implements RequestProcessor, HttpConstants {
 		if (pattern != null) {
 
 			// Parameters in URL (eg "/path/:id/:name")
-			String cacheKey = req.getPath();
-			Matcher matcher = cache.get(cacheKey);
-			boolean find;
-			if (matcher == null) {
-				matcher = pattern.matcher(cacheKey);
-				find = matcher.find();
-				if (find) {
-					cache.put(cacheKey, matcher);
-				}
+			String path = req.getPath();
+			RouteMatch match = (RouteMatch) rsp.getProperty(PROPERTY_ROUTE_MATCH);
+			int[] offsets;
+			if (match != null && match.size() == variables.length && match.path.equals(path)) {
+
+				// Positions are found by the RouteTree
+				offsets = match.offsets;
 			} else {
-				find = true;
+				offsets = new int[variables.length * 2];
+				if (!pattern.matches(path, offsets)) {
+					offsets = null;
+				}
 			}
-			if (find) {
-				int max = matcher.groupCount();
-				IndexedVariable var;
+			if (offsets != null) {
 				for (int i = 0; i < variables.length; i++) {
-					var = variables[i];
-					if (var.index <= max) {
-						params.put(var.name, matcher.group(var.index));
-					}
+					params.put(variables[i].name, path.substring(offsets[i * 2], offsets[i * 2 + 1]));
 				}
 			}
 		}
@@ -198,6 +190,11 @@ public class ActionInvoker implements RequestProcessor, HttpConstants {
 					meta.clear();
 				}
 
+				// Client disconnected or deadline exceeded
+				if (isCancelled(rsp)) {
+					return;
+				}
+
 				// Custom "before call" processor
 				// (eg. copy HTTP headers into the "params" variable)
 				if (invokeBeforeCall(req, rsp, params)) {
@@ -206,7 +203,7 @@ public class ActionInvoker implements RequestProcessor, HttpConstants {
 
 				// Invoke service
 				serviceInvoker.call(new Context(serviceInvoker, eventbus, uidGenerator, uidGenerator.nextUID(),
-						actionName, params, 1, null, null, req.getBody(), opts, nodeID)).then(out -> {
+						actionName, params, 1, null, null, req.getBody(), getCallOptions(rsp), nodeID)).then(out -> {
 							sendResponse(req, rsp, out);
 						}).catchError(cause -> {
 							sendError(rsp, cause);
@@ -226,6 +223,11 @@ public class ActionInvoker implements RequestProcessor, HttpConstants {
 					meta.clear();
 				}
 
+				// Client disconnected or deadline exceeded
+				if (isCancelled(rsp)) {
+					return;
+				}
+
 				// Custom "before call" processor
 				// (eg. copy HTTP headers into the "params" variable)
 				if (invokeBeforeCall(req, rsp, params)) {
@@ -234,7 +236,7 @@ public class ActionInvoker implements RequestProcessor, HttpConstants {
 
 				// Invoke service
 				serviceInvoker.call(new Context(serviceInvoker, eventbus, uidGenerator, uidGenerator.nextUID(),
-						actionName, params, 1, null, null, null, opts, nodeID)).then(out -> {
+						actionName, params, 1, null, null, null, getCallOptions(rsp), nodeID)).then(out -> {
 							sendResponse(req, rsp, out);
 						}).catchError(cause -> {
 							logger.error("Unable to invoke action!", cause);
@@ -276,6 +278,11 @@ public class ActionInvoker implements RequestProcessor, HttpConstants {
 						meta.clear();
 					}
 
+					// Client disconnected or deadline exceeded
+					if (isCancelled(rsp)) {
+						return;
+					}
+
 					// Custom "before call" processor
 					// (eg. copy HTTP headers into the "params" variable)
 					if (invokeBeforeCall(req, rsp, merged)) {
@@ -284,7 +291,7 @@ public class ActionInvoker implements RequestProcessor, HttpConstants {
 
 					// Invoke service
 					serviceInvoker.call(new Context(serviceInvoker, eventbus, uidGenerator, uidGenerator.nextUID(),
-							actionName, merged, 1, null, null, null, opts, nodeID)).then(out -> {
+							actionName, merged, 1, null, null, null, getCallOptions(rsp), nodeID)).then(out -> {
 								sendResponse(req, rsp, out);
 							}).catchError(err -> {
 								logger.error("Unable to invoke action!", err);
@@ -295,6 +302,69 @@ public class ActionInvoker implements RequestProcessor, HttpConstants {
 		});
 	}
 
+	// --- DEADLINE AND CANCELLATION ---
+
+	/**
+	 * Checks the client before invoking the action. If the client has closed
+	 * the connection, or the deadline (set by the ResponseTimeout middleware)
+	 * has passed, the action is not called. The response is marked with the
+	 * "$cancelled" property (so the middlewares do not store or encode it),
+	 * then it is ended (the ResponseTimeout sends the timeout response).
+	 * 
+	 * @param rsp
+	 *            WebResponse object
+	 * 
+	 * @return true if the action must not be called
+	 */
+	protected boolean isCancelled(WebResponse rsp) {
+		String reason = null;
+		if (isDisconnected(rsp)) {
+			reason = "Client disconnected";
+		} else {
+			Object deadline = rsp.getProperty(PROPERTY_DEADLINE);
+			if (deadline != null && (Long) deadline <= System.currentTimeMillis()) {
+				reason = "Request timeouted";
+			}
+		}
+		if (reason == null) {
+			return false;
+		}
+		if (logger.isDebugEnabled()) {
+			logger.debug(reason + ", \"" + actionName + "\" action not called.");
+		}
+		try {
+			rsp.setProperty(PROPERTY_CANCELLED, true);
+			rsp.end();
+		} catch (Exception ignored) {
+		}
+		return true;
+	}
+
+	/**
+	 * Returns the CallOptions of the action call. If the ResponseTimeout
+	 * middleware specified a deadline for the response, the timeout of the
+	 * call is limited to the remaining time.
+	 * 
+	 * @param rsp
+	 *            WebResponse object
+	 * 
+	 * @return CallOptions of the Route, or the time-limited copy of it
+	 */
+	protected CallOptions.Options getCallOptions(WebResponse rsp) {
+		Object deadline = rsp.getProperty(PROPERTY_DEADLINE);
+		if (deadline == null) {
+			return opts;
+		}
+		long remaining = Math.max(1L, (Long) deadline - System.currentTimeMillis());
+		if (opts == null) {
+			return CallOptions.timeout(remaining);
+		}
+		if (opts.timeout > 0 && opts.timeout <= remaining) {
+			return opts;
+		}
+		return opts.timeout(remaining);
+	}
+
 	protected boolean invokeBeforeCall(WebRequest req, WebResponse rsp, Tree data) {
 		if (beforeCall != null) {
 			try {
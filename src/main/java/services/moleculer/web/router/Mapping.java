@@ -27,17 +27,12 @@ package services.moleculer.web.router;
 
 import java.util.Collection;
 import java.util.HashSet;
-import java.util.LinkedList;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
-import java.util.StringTokenizer;
 import java.util.concurrent.ExecutorService;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 import io.datatree.Tree;
-import io.datatree.dom.Cache;
 import services.moleculer.ServiceBroker;
 import services.moleculer.config.ServiceBrokerConfig;
 import services.moleculer.context.CallOptions;
@@ -74,11 +69,7 @@ public class Mapping implements RequestProcessor, HttpConstants {
 	protected final String pathPattern;
 	protected final int hashCode;
 
-	protected final Pattern pattern;
-
-	// --- MATCHER CACHE ---
-
-	protected final Cache<String, Matcher> cache;
+	protected final PathPattern pattern;
 
 	// --- INSTALLED MIDDLEWARES ---
 
@@ -102,85 +93,18 @@ public class Mapping implements RequestProcessor, HttpConstants {
 		int colonPos = pathPattern.indexOf(':');
 		isStatic = colonPos == -1 && starPos == -1;
 
-		IndexedVariable[] variables = null;
 		if (isStatic) {
 			pathPrefix = pathPattern;
 			pattern = null;
-			cache = null;
 		} else if (starPos > -1) {
 			pathPrefix = pathPattern.substring(0, starPos);
 			pattern = null;
-			cache = null;
 		} else {
 			pathPrefix = pathPattern.substring(0, colonPos);
-
-			// Parse regex
 			if (!pathPattern.startsWith("/")) {
 				pathPattern = '/' + pathPattern;
 			}
-			StringTokenizer st = new StringTokenizer(pathPattern, ":/.+?$^\\", true);
-
-			boolean inName = false;
-			String name = "";
-			int index = 1;
-
-			StringBuilder regex = new StringBuilder(pathPattern.length() * 2);
-			regex.append('(');
-
-			LinkedList<IndexedVariable> list = new LinkedList<>();
-			while (st.hasMoreTokens()) {
-				String token = st.nextToken();
-				if ("+".equals(token) || "?".equals(token) || "$".equals(token) || "^".equals(token)
-						|| "\\".equals(token)) {
-					regex.append("\\").append(token);
-					continue;
-				}
-				if (".".equals(token)) {
-					if (inName) {
-						regex.append(")(\\.");
-						list.addLast(new IndexedVariable(index, name));
-						index++;
-						inName = false;
-						name = "";
-						continue;
-					}
-					regex.append("\\").append(token);
-					continue;
-				}
-				if (":".equals(token)) {
-					regex.append(")([^/]*");
-					index++;
-					inName = true;
-					continue;
-				}
-				if ("/".equals(token)) {
-					if (inName) {
-						regex.append(")(").append(token);
-						list.addLast(new IndexedVariable(index, name));
-						index++;
-						inName = false;
-						name = "";
-						continue;
-					}
-					regex.append(token);
-					continue;
-				}
-				if (inName) {
-					name += token;
-					continue;
-				}
-				regex.append(token);
-			}
-			if (inName) {
-				list.addLast(new IndexedVariable(index, name));
-			}
-			regex.append(')');
-			pattern = Pattern.compile(regex.toString());
-			variables = new IndexedVariable[list.size()];
-			list.toArray(variables);
-
-			// Create matcher cache
-			cache = new Cache<>(64);
+			pattern = new PathPattern(pathPattern);
 		}
 
 		// Generate hashcode
@@ -189,7 +113,11 @@ public class Mapping implements RequestProcessor, HttpConstants {
 		// Create config
 		config = new Tree();
 		config.put("action", actionName);
+		config.put("method", httpMethod);
 		config.put("pattern", pathPattern);
+		if (route != null) {
+			config.put("route", route.getPath());
+		}
 		config.put("static", isStatic);
 		config.put("prefix", pathPrefix);
 		if (opts != null) {
@@ -203,8 +131,8 @@ public class Mapping implements RequestProcessor, HttpConstants {
 		ServiceInvoker serviceInvoker = cfg.getServiceInvoker();
 		ExecutorService runner = executor == null ? cfg.getExecutor() : executor;
 		Eventbus eventbus = cfg.getEventbus();
-		lastProcessor = new ActionInvoker(actionName, pattern, cache, variables, opts, serviceInvoker, templateEngine,
-				route, beforeCall, afterCall, runner, eventbus);
+		lastProcessor = new ActionInvoker(actionName, pattern, opts, serviceInvoker, templateEngine, route, beforeCall,
+				afterCall, runner, eventbus);
 	}
 
 	// --- MATCH TEST ---
@@ -220,20 +148,40 @@ public class Mapping implements RequestProcessor, HttpConstants {
 			return false;
 		}
 		if (pattern != null) {
-			Matcher matcher = cache.get(path);
-			if (matcher == null) {
-				matcher = pattern.matcher(path);
-				if (matcher.matches()) {
-					cache.put(path, matcher);				
-					return true;
-				}
-				return false;
-			}
-			return true;
+			return pattern.matches(path, null);
 		}
 		return true;
 	}
 
+	/**
+	 * Checks the specified path, and finds the positions of the path
+	 * variables (eg. "/user/:id").
+	 * 
+	 * @param httpMethod
+	 *            HTTP method (eg. "GET")
+	 * @param path
+	 *            requested path (eg. "/user/123")
+	 * 
+	 * @return RouteMatch, or null if the path does not match
+	 */
+	public RouteMatch match(String httpMethod, String path) {
+		if (pattern == null) {
+			return matches(httpMethod, path) ? new RouteMatch(this, path, null, 0) : null;
+		}
+		if (this.httpMethod != null && !this.httpMethod.equals(httpMethod)) {
+			return null;
+		}
+		if (!path.startsWith(pathPrefix)) {
+			return null;
+		}
+		int count = pattern.getVariables().length;
+		int[] offsets = new int[count * 2];
+		if (pattern.matches(path, offsets)) {
+			return new RouteMatch(this, path, offsets, count);
+		}
+		return null;
+	}
+
 	// --- ACTION WITH MIDDLEWARES ---
 
 	public void use(Collection<HttpMiddleware> middlewares) {
@@ -0,0 +1,169 @@
+/**
+ * THIS SOFTWARE IS LICENSED UNDER MIT LICENSE.<br>
+ * <br>
+ * Copyright 2019 Andras Berkes [andras.berkes@programmer.net]<br>
+ * Based on Moleculer Framework for NodeJS [https://moleculer.services].
+ * <br><br>
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:<br>
+ * <br>
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.<br>
+ * <br>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package services.moleculer.web.router;
+
+import java.util.LinkedList;
+
+/**
+ * Compiled path pattern with variables (eg. "/user/:id" or
+ * "/file/:name.:ext"). Matches paths without regular expressions and stores
+ * the start and end positions of the variables in an int array, so the
+ * values can be extracted without creating per-path objects. Thread-safe,
+ * the instances are immutable.
+ */
+public class PathPattern {
+
+	// --- PROPERTIES ---
+
+	/**
+	 * Literal texts and variable names.
+	 */
+	protected final String[] tokens;
+
+	/**
+	 * Variable or literal tokens.
+	 */
+	protected final boolean[] variableTokens;
+
+	/**
+	 * Variables (index = position of the variable in the pattern).
+	 */
+	protected final IndexedVariable[] variables;
+
+	// --- CONSTRUCTOR ---
+
+	public PathPattern(String pathPattern) {
+		if (!pathPattern.startsWith("/")) {
+			pathPattern = '/' + pathPattern;
+		}
+		LinkedList<String> tokenList = new LinkedList<>();
+		LinkedList<Boolean> typeList = new LinkedList<>();
+		LinkedList<IndexedVariable> variableList = new LinkedList<>();
+		StringBuilder literal = new StringBuilder(pathPattern.length());
+		int len = pathPattern.length();
+		int i = 0;
+		while (i < len) {
+			char c = pathPattern.charAt(i);
+			if (c != ':') {
+				literal.append(c);
+				i++;
+				continue;
+			}
+			if (literal.length() > 0) {
+				tokenList.addLast(literal.toString());
+				typeList.addLast(false);
+				literal.setLength(0);
+			}
+
+			// Variable name ends at the next separator (eg. "/" or ".")
+			int end = i + 1;
+			while (end < len && ":/.+?$^\\".indexOf(pathPattern.charAt(end)) == -1) {
+				end++;
+			}
+			String name = pathPattern.substring(i + 1, end);
+			tokenList.addLast(name);
+			typeList.addLast(true);
+			variableList.addLast(new IndexedVariable(variableList.size(), name));
+			i = end;
+		}
+		if (literal.length() > 0) {
+			tokenList.addLast(literal.toString());
+			typeList.addLast(false);
+		}
+		tokens = new String[tokenList.size()];
+		tokenList.toArray(tokens);
+		variableTokens = new boolean[tokens.length];
+		i = 0;
+		for (Boolean type : typeList) {
+			variableTokens[i++] = type;
+		}
+		variables = new IndexedVariable[variableList.size()];
+		variableList.toArray(variables);
+	}
+
+	// --- MATCH TEST ---
+
+	/**
+	 * Checks the specified path. The value of a variable can not contain "/"
+	 * characters, and the variable gets the longest possible value (eg.
+	 * "/:name.:ext" matches "/a.b.c" with "a.b" and "c").
+	 * 
+	 * @param path
+	 *            requested path (eg. "/user/123")
+	 * @param offsets
+	 *            array for the start and end positions of the variables (its
+	 *            length must be at least the number of variables * 2), or null
+	 * 
+	 * @return true if the path matches the pattern
+	 */
+	public boolean matches(String path, int[] offsets) {
+		return matches(path, 0, 0, 0, offsets);
+	}
+
+	protected boolean matches(String path, int pos, int token, int variable, int[] offsets) {
+		if (token == tokens.length) {
+			return pos == path.length();
+		}
+		if (!variableTokens[token]) {
+			String literal = tokens[token];
+			if (!path.startsWith(literal, pos)) {
+				return false;
+			}
+			return matches(path, pos + literal.length(), token + 1, variable, offsets);
+		}
+		int end = path.indexOf('/', pos);
+		if (end == -1) {
+			end = path.length();
+		}
+		if (token == tokens.length - 1) {
+			if (end != path.length()) {
+				return false;
+			}
+			if (offsets != null) {
+				offsets[variable * 2] = pos;
+				offsets[variable * 2 + 1] = end;
+			}
+			return true;
+		}
+		for (int i = end; i >= pos; i--) {
+			if (matches(path, i, token + 1, variable + 1, offsets)) {
+				if (offsets != null) {
+					offsets[variable * 2] = pos;
+					offsets[variable * 2 + 1] = i;
+				}
+				return true;
+			}
+		}
+		return false;
+	}
+
+	// --- PROPERTY GETTERS ---
+
+	public IndexedVariable[] getVariables() {
+		return variables;
+	}
+
+}
@@ -85,6 +85,13 @@ public class Route {
 
 	protected final Set<HttpMiddleware> routeMiddlewares = new LinkedHashSet<>(32);
 
+	// --- MODIFICATION LISTENER ---
+
+	/**
+	 * Invoked after the modifications (the ApiGateway rebuilds its RouteTree).
+	 */
+	protected volatile Runnable changeListener;
+
 	// --- CONSTRUCTORS ---
 
 	public Route() {
@@ -122,36 +129,64 @@ public class Route {
 				}
 			}
 		}
-		String actionName = shortPath.replace('/', '.').replace('~', '$');
-		while (actionName.startsWith(".")) {
-			actionName = actionName.substring(1);
-		}
 		if (whiteList != null && whiteList.length > 0) {
 			for (String pattern : whiteList) {
 				if (pattern == null) {
 					continue;
 				}
 				if (Matcher.matches(shortPath, pattern)) {
-					Mapping mapping = new Mapping(broker, httpMethod, path, actionName, opts, templateEngine, this,
-							beforeCall, afterCall, executor);
-					if (!routeMiddlewares.isEmpty()) {
-						mapping.use(routeMiddlewares);
-					}
-					return mapping;
+					return createMapping(httpMethod, path);
 				}
 			}
 		}
 		if (mappingPolicy == MappingPolicy.ALL) {
-			Mapping mapping = new Mapping(broker, httpMethod, path, actionName, opts, templateEngine, this, beforeCall,
-					afterCall, executor);
-			if (!routeMiddlewares.isEmpty()) {
-				mapping.use(routeMiddlewares);
-			}
-			return mapping;
+			return createMapping(httpMethod, path);
 		}
 		return null;
 	}
 
+	// --- CREATE MAPPINGS ---
+
+	/**
+	 * Creates Mapping for an alias (eg. "/user/:id").
+	 * 
+	 * @param httpMethod
+	 *            HTTP method (eg. "GET" or "ALL")
+	 * @param pathPattern
+	 *            full path pattern (including the path of this Route)
+	 * @param actionName
+	 *            name of the action (eg. "user.get")
+	 * 
+	 * @return new Mapping with the route-specific middlewares
+	 */
+	public Mapping createMapping(String httpMethod, String pathPattern, String actionName) {
+		Mapping mapping = new Mapping(broker, httpMethod, pathPattern, actionName, opts, templateEngine, this,
+				beforeCall, afterCall, executor);
+		if (!routeMiddlewares.isEmpty()) {
+			mapping.use(routeMiddlewares);
+		}
+		return mapping;
+	}
+
+	/**
+	 * Creates Mapping for a whitelisted path (eg. "/math/add" -&gt; "math.add"
+	 * action).
+	 * 
+	 * @param httpMethod
+	 *            HTTP method (eg. "GET")
+	 * @param path
+	 *            full path (including the path of this Route)
+	 * 
+	 * @return new Mapping with the route-specific middlewares
+	 */
+	public Mapping createMapping(String httpMethod, String path) {
+		String actionName = path.substring(this.path.length()).replace('/', '.').replace('~', '$');
+		while (actionName.startsWith(".")) {
+			actionName = actionName.substring(1);
+		}
+		return createMapping(httpMethod, path, actionName);
+	}
+
 	// --- ADD MIDDLEWARES TO ROUTE ---
 
 	public Route use(HttpMiddleware... middlewares) {
@@ -166,6 +201,7 @@ public class Route {
 	public Route use(Collection<HttpMiddleware> middlewares) {
 		if (middlewares != null) {
 			routeMiddlewares.addAll(middlewares);
+			changed();
 		}
 
 		// Return this (for method chaining)
@@ -272,6 +308,7 @@ public class Route {
 			}
 			this.aliases = new Alias[list.size()];
 			list.toArray(this.aliases);
+			changed();
 		}
 
 		// Return this (for method chaining)
@@ -315,6 +352,7 @@ public class Route {
 			}
 			whiteList = new String[list.size()];
 			list.toArray(whiteList);
+			changed();
 		}
 
 		// Return this (for method chaining)
@@ -325,6 +363,7 @@ public class Route {
 
 	public void setTemplateEngine(AbstractTemplateEngine templateEngine) {
 		this.templateEngine = templateEngine;
+		changed();
 	}
 
 	public AbstractTemplateEngine getTemplateEngine() {
@@ -337,6 +376,7 @@ public class Route {
 
 	public void setBeforeCall(CallProcessor beforeCall) {
 		this.beforeCall = beforeCall;
+		changed();
 	}
 
 	public CallProcessor getAfterCall() {
@@ -345,6 +385,7 @@ public class Route {
 
 	public void setAfterCall(CallProcessor afterCall) {
 		this.afterCall = afterCall;
+		changed();
 	}
 
 	public String getPath() {
@@ -389,14 +430,17 @@ public class Route {
 
 	public void setPath(String path) {
 		this.path = formatPath(path);
+		changed();
 	}
 
 	public void setMappingPolicy(MappingPolicy mappingPolicy) {
 		this.mappingPolicy = mappingPolicy;
+		changed();
 	}
 
 	public void setCallOptions(CallOptions.Options opts) {
 		this.opts = opts;
+		changed();
 	}
 
 	public void setWhiteList(String... whiteList) {
@@ -405,10 +449,12 @@ public class Route {
 		// do not change at runtime.
 		synchronized (this) {
 			this.whiteList = null;
+
+			// Adds all entries at once (the listener is invoked only once)
 			if (whiteList != null && whiteList.length > 0) {
-				for (String whiteListEntry : whiteList) {
-					addToWhiteList(whiteListEntry);
-				}
+				addToWhiteList(whiteList);
+			} else {
+				changed();
 			}
 		}
 	}
@@ -419,20 +465,38 @@ public class Route {
 		// do not change at runtime.
 		synchronized (this) {
 			this.aliases = null;
+
+			// Adds all aliases at once (the listener is invoked only once)
 			if (aliases != null && aliases.length > 0) {
-				for (Alias alias : aliases) {
-					addAlias(alias);
-				}
+				addAlias(aliases);
+			} else {
+				changed();
 			}
 		}
 	}
 
+	protected void changed() {
+		Runnable listener = changeListener;
+		if (listener != null) {
+			listener.run();
+		}
+	}
+
+	public Runnable getChangeListener() {
+		return changeListener;
+	}
+
+	public void setChangeListener(Runnable changeListener) {
+		this.changeListener = changeListener;
+	}
+
 	public ExecutorService getExecutor() {
 		return executor;
 	}
 
 	public void setExecutor(ExecutorService executor) {
 		this.executor = executor;
+		changed();
 	}
 
 }
\ No newline at end of file
@@ -0,0 +1,71 @@
+/**
+ * THIS SOFTWARE IS LICENSED UNDER MIT LICENSE.<br>
+ * <br>
+ * Copyright 2017 Andras Berkes [andras.berkes@programmer.net]<br>
+ * Based on Moleculer Framework for NodeJS [https://moleculer.services].
+ * <br><br>
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:<br>
+ * <br>
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.<br>
+ * <br>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package services.moleculer.web.router;
+
+/**
+ * Result of a RouteTree lookup. Contains the matched Mapping and the
+ * positions of the path variables (eg. "/user/:id") in the requested path,
+ * so the ActionInvoker does not have to match the path again.
+ */
+public class RouteMatch {
+
+	// --- PROPERTIES ---
+
+	public final Mapping mapping;
+	public final String path;
+
+	/**
+	 * Start and end positions of the variables (pairs, in the order of the
+	 * variables in the path pattern), or null if the positions are unknown.
+	 */
+	public final int[] offsets;
+
+	/**
+	 * Number of the captured variables.
+	 */
+	public final int count;
+
+	// --- CONSTRUCTOR ---
+
+	public RouteMatch(Mapping mapping, String path, int[] offsets, int count) {
+		this.mapping = mapping;
+		this.path = path;
+		this.offsets = offsets;
+		this.count = offsets == null ? 0 : count;
+	}
+
+	// --- VALUE GETTERS ---
+
+	public int size() {
+		return count;
+	}
+
+	public String getValue(int index) {
+		int i = index * 2;
+		return path.substring(offsets[i], offsets[i + 1]);
+	}
+
+}
@@ -0,0 +1,474 @@
+/**
+ * THIS SOFTWARE IS LICENSED UNDER MIT LICENSE.<br>
+ * <br>
+ * Copyright 2017 Andras Berkes [andras.berkes@programmer.net]<br>
+ * Based on Moleculer Framework for NodeJS [https://moleculer.services].
+ * <br><br>
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:<br>
+ * <br>
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.<br>
+ * <br>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package services.moleculer.web.router;
+
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.Map;
+
+import services.moleculer.eventbus.Matcher;
+
+/**
+ * Compiled router. Stores the Mappings of the aliases (eg. "/user/:id") and
+ * the whitelist entries (eg. "/math*") in a tree of path segments (one tree
+ * per HTTP method), so the time of the lookup depends on the depth of the
+ * path instead of the number of the routes. The more specific segment wins
+ * (static segment, then variable, then pattern with wildcard). The tree is
+ * not modified after it is built (and published by the ApiGateway), it is
+ * replaced by a new tree when the Routes change, so it can be read without
+ * locking.
+ */
+public class RouteTree {
+
+	// --- STATIC MAPPINGS ---
+
+	/**
+	 * Mappings of the static aliases by HTTP method and path (eg. "GET
+	 * /user").
+	 */
+	protected final HashMap<String, Mapping> staticMappings;
+
+	/**
+	 * Precompiled Mappings of the whitelisted paths by HTTP method and path
+	 * (eg. "POST /math/add").
+	 */
+	protected final HashMap<String, Mapping> whiteListMappings;
+
+	// --- ROOT NODES ---
+
+	/**
+	 * Root nodes of the aliases by HTTP methods ("ALL" = any method).
+	 */
+	protected final HashMap<String, Node> roots;
+
+	/**
+	 * Root node of the whitelist entries.
+	 */
+	protected final Node whiteListRoot;
+
+	/**
+	 * Max number of variables in a path pattern.
+	 */
+	protected int maxVariables;
+
+	// --- ROUTES WITH "ALL" MAPPING POLICY ---
+
+	protected final LinkedList<WhiteListEntry> policyRoutes;
+
+	// --- TREE NODES ---
+
+	protected static final class Node {
+
+		/**
+		 * Static segments (eg. "user").
+		 */
+		protected HashMap<String, Node> children;
+
+		/**
+		 * Variable segment (eg. ":id").
+		 */
+		protected Node variable;
+
+		/**
+		 * Mapping of the path that ends here.
+		 */
+		protected Mapping mapping;
+
+		/**
+		 * Mappings with complex segments (eg. ":name.:ext").
+		 */
+		protected LinkedList<Mapping> patterns;
+
+		/**
+		 * Mappings with wildcards (eg. "/files/*").
+		 */
+		protected LinkedList<PrefixEntry> prefixes;
+
+		/**
+		 * Whitelist entries (eg. "/math*").
+		 */
+		protected LinkedList<WhiteListEntry> whiteList;
+
+		protected Node child(String segment) {
+			if (children == null) {
+				children = new HashMap<>();
+			}
+			Node node = children.get(segment);
+			if (node == null) {
+				node = new Node();
+				children.put(segment, node);
+			}
+			return node;
+		}
+
+	}
+
+	protected static final class PrefixEntry {
+
+		protected final String prefix;
+		protected final Mapping mapping;
+
+		protected PrefixEntry(String prefix, Mapping mapping) {
+			this.prefix = prefix;
+			this.mapping = mapping;
+		}
+
+	}
+
+	protected static final class WhiteListEntry {
+
+		protected final String prefix;
+		protected final String pattern;
+		protected final Route route;
+		protected final int index;
+
+		protected WhiteListEntry(String prefix, String pattern, Route route, int index) {
+			this.prefix = prefix;
+			this.pattern = pattern;
+			this.route = route;
+			this.index = index;
+		}
+
+	}
+
+	// --- CONSTRUCTORS ---
+
+	public RouteTree() {
+		staticMappings = new HashMap<>();
+		whiteListMappings = new HashMap<>();
+		roots = new HashMap<>();
+		whiteListRoot = new Node();
+		policyRoutes = new LinkedList<>();
+	}
+
+	/**
+	 * Creates a copy of a compiled tree with other whitelist Mappings. The
+	 * nodes are shared (they are not modified after the build).
+	 * 
+	 * @param tree
+	 *            compiled RouteTree
+	 * @param whiteListMappings
+	 *            Mappings of the whitelisted paths
+	 */
+	public RouteTree(RouteTree tree, Map<String, Mapping> whiteListMappings) {
+		staticMappings = tree.staticMappings;
+		this.whiteListMappings = new HashMap<>(whiteListMappings);
+		roots = tree.roots;
+		whiteListRoot = tree.whiteListRoot;
+		maxVariables = tree.maxVariables;
+		policyRoutes = tree.policyRoutes;
+	}
+
+	// --- ADD MAPPING OF AN ALIAS ---
+
+	public void addMapping(Mapping mapping) {
+		String httpMethod = mapping.getHttpMethod();
+		String key = httpMethod == null ? Alias.ALL : httpMethod;
+		if (httpMethod != null && mapping.isStatic()) {
+			staticMappings.putIfAbsent(httpMethod + ' ' + mapping.getPathPrefix(), mapping);
+		}
+		Node node = roots.get(key);
+		if (node == null) {
+			node = new Node();
+			roots.put(key, node);
+		}
+		String pattern = mapping.getPathPattern();
+		if (!pattern.startsWith("/")) {
+			pattern = '/' + pattern;
+		}
+
+		// Patterns with wildcard are simple prefixes (eg. "/files/*")
+		int starPos = pattern.indexOf('*');
+		boolean prefix = starPos > -1;
+		if (prefix) {
+			pattern = pattern.substring(0, starPos);
+		}
+		int variables = 0;
+		int pos = 1;
+		int end;
+		String segment;
+		while (true) {
+			end = pattern.indexOf('/', pos);
+			segment = end == -1 ? pattern.substring(pos) : pattern.substring(pos, end);
+			if (prefix) {
+				if (end == -1) {
+					if (node.prefixes == null) {
+						node.prefixes = new LinkedList<>();
+					}
+					node.prefixes.addLast(new PrefixEntry(segment, mapping));
+					break;
+				}
+				node = node.child(segment);
+			} else if (segment.indexOf(':') == -1) {
+				node = node.child(segment);
+			} else if (isVariable(segment)) {
+				if (node.variable == null) {
+					node.variable = new Node();
+				}
+				node = node.variable;
+				variables++;
+			} else {
+
+				// Complex segment (eg. "/file/:name.:ext")
+				if (node.patterns == null) {
+					node.patterns = new LinkedList<>();
+				}
+				node.patterns.addLast(mapping);
+				break;
+			}
+			if (end == -1) {
+				if (node.mapping == null) {
+					node.mapping = mapping;
+				}
+				break;
+			}
+			pos = end + 1;
+		}
+		maxVariables = Math.max(maxVariables, variables);
+	}
+
+	protected boolean isVariable(String segment) {
+		if (segment.charAt(0) != ':') {
+			return false;
+		}
+		char c;
+		for (int i = 1; i < segment.length(); i++) {
+			c = segment.charAt(i);
+			if (c == ':' || c == '.' || c == '+' || c == '?' || c == '$' || c == '^' || c == '\\') {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	// --- ADD WHITELIST ENTRY ---
+
+	public void addWhiteListEntry(Route route, int index, String whiteListEntry) {
+		String pattern = route.getPath() + whiteListEntry;
+
+		// Literal prefix of the pattern
+		int i = 0;
+		char c;
+		for (; i < pattern.length(); i++) {
+			c = pattern.charAt(i);
+			if (c == '*' || c == '?' || c == '\\' || c == '^' || c == '$' || c == '[') {
+				break;
+			}
+		}
+		pattern = pattern.substring(0, i);
+		Node node = whiteListRoot;
+		int pos = 1;
+		if (pattern.startsWith("/")) {
+			int end;
+			while ((end = pattern.indexOf('/', pos)) > -1) {
+				node = node.child(pattern.substring(pos, end));
+				pos = end + 1;
+			}
+			pattern = pattern.substring(pos);
+		} else {
+			pattern = "";
+		}
+		if (node.whiteList == null) {
+			node.whiteList = new LinkedList<>();
+		}
+		node.whiteList.addLast(new WhiteListEntry(pattern, whiteListEntry, route, index));
+	}
+
+	// --- ADD ROUTE WITH "ALL" MAPPING POLICY ---
+
+	public void addPolicyRoute(Route route, int index) {
+		policyRoutes.addLast(new WhiteListEntry(route.getPath(), null, route, index));
+	}
+
+	// --- FIND MAPPING OF AN ALIAS ---
+
+	public RouteMatch find(String httpMethod, String path) {
+		if (path == null || path.isEmpty() || path.charAt(0) != '/') {
+			return null;
+		}
+		if (!staticMappings.isEmpty()) {
+			Mapping mapping = staticMappings.get(httpMethod + ' ' + path);
+			if (mapping != null) {
+				return new RouteMatch(mapping, path, null, 0);
+			}
+		}
+		int[] offsets = maxVariables == 0 ? null : new int[maxVariables * 2];
+		RouteMatch match = null;
+		Node root = roots.get(httpMethod);
+		if (root != null) {
+			match = find(root, httpMethod, path, 1, offsets, 0);
+		}
+		if (match == null) {
+			root = roots.get(Alias.ALL);
+			if (root != null) {
+				match = find(root, httpMethod, path, 1, offsets, 0);
+			}
+		}
+		return match;
+	}
+
+	protected RouteMatch find(Node node, String httpMethod, String path, int pos, int[] offsets, int count) {
+		int end = path.indexOf('/', pos);
+		if (end == -1) {
+			end = path.length();
+		}
+		RouteMatch match;
+
+		// Static segment
+		if (node.children != null) {
+			Node child = node.children.get(path.substring(pos, end));
+			if (child != null) {
+				match = next(child, httpMethod, path, end, offsets, count);
+				if (match != null) {
+					return match;
+				}
+			}
+		}
+
+		// Variable segment
+		if (node.variable != null) {
+			offsets[count * 2] = pos;
+			offsets[count * 2 + 1] = end;
+			match = next(node.variable, httpMethod, path, end, offsets, count + 1);
+			if (match != null) {
+				return match;
+			}
+		}
+
+		// Complex segments
+		if (node.patterns != null) {
+			for (Mapping mapping : node.patterns) {
+				match = mapping.match(httpMethod, path);
+				if (match != null) {
+					return match;
+				}
+			}
+		}
+
+		// Wildcards
+		if (node.prefixes != null) {
+			for (PrefixEntry entry : node.prefixes) {
+				if (path.startsWith(entry.prefix, pos)) {
+					return new RouteMatch(entry.mapping, path, null, 0);
+				}
+			}
+		}
+		return null;
+	}
+
+	protected RouteMatch next(Node node, String httpMethod, String path, int end, int[] offsets, int count) {
+		if (end == path.length()) {
+			if (node.mapping == null) {
+				return null;
+			}
+			return new RouteMatch(node.mapping, path, offsets, count);
+		}
+		return find(node, httpMethod, path, end + 1, offsets, count);
+	}
+
+	// --- FIND ROUTE BY WHITELIST OR MAPPING POLICY ---
+
+	/**
+	 * Finds the first Route whose whitelist (or mapping policy) accepts the
+	 * specified path.
+	 * 
+	 * @param path
+	 *            requested path (eg. "/math/add")
+	 * 
+	 * @return the Route, or null if none of the Routes accept the path
+	 */
+	public Route findRoute(String path) {
+		if (path == null || path.isEmpty() || path.charAt(0) != '/') {
+			return null;
+		}
+		WhiteListEntry policyRoute = null;
+		for (WhiteListEntry entry : policyRoutes) {
+			if (path.startsWith(entry.prefix)) {
+				policyRoute = entry;
+				break;
+			}
+		}
+		Route route = findWhiteListedRoute(path, policyRoute == null ? Integer.MAX_VALUE : policyRoute.index);
+		if (route == null && policyRoute != null) {
+			return policyRoute.route;
+		}
+		return route;
+	}
+
+	protected Route findWhiteListedRoute(String path, int maxIndex) {
+		WhiteListEntry best = null;
+		Node node = whiteListRoot;
+		int pos = 1;
+		int end;
+		while (node != null) {
+			if (node.whiteList != null) {
+				for (WhiteListEntry entry : node.whiteList) {
+					if (entry.index > maxIndex || (best != null && best.index <= entry.index)) {
+						continue;
+					}
+					String routePath = entry.route.getPath();
+					if (path.startsWith(entry.prefix, pos) && path.startsWith(routePath)
+							&& Matcher.matches(path.substring(routePath.length()), entry.pattern)) {
+						best = entry;
+					}
+				}
+			}
+			if (node.children == null) {
+				break;
+			}
+			end = path.indexOf('/', pos);
+			if (end == -1) {
+				break;
+			}
+			node = node.children.get(path.substring(pos, end));
+			pos = end + 1;
+		}
+		return best == null ? null : best.route;
+	}
+
+	// --- PRECOMPILED MAPPINGS OF WHITELISTED PATHS ---
+
+	/**
+	 * Stores the Mapping of a whitelisted path (only while building the tree).
+	 * 
+	 * @param key
+	 *            HTTP method and full path (eg. "POST /math/add")
+	 * @param mapping
+	 *            Mapping of the path
+	 */
+	public void addWhiteListMapping(String key, Mapping mapping) {
+		whiteListMappings.put(key, mapping);
+	}
+
+	public Mapping getWhiteListMapping(String key) {
+		return whiteListMappings.get(key);
+	}
+
+	public Map<String, Mapping> getWhiteListMappings() {
+		return whiteListMappings;
+	}
+
+}
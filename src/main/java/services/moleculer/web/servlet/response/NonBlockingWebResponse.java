@@ -25,12 +25,16 @@
  */
 package services.moleculer.web.servlet.response;
 
+import static services.moleculer.web.common.HttpConstants.PROPERTY_DISCONNECTED;
+
 import java.io.IOException;
 import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicReference;
 
 import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
 import javax.servlet.WriteListener;
 import javax.servlet.http.HttpServletResponse;
 
@@ -48,10 +52,42 @@ public class NonBlockingWebResponse extends AbstractWebResponse {
 
 	protected final AtomicBoolean writting = new AtomicBoolean();
 
+	/**
+	 * Set when the client is gone (stored as the "$disconnected" property).
+	 */
+	protected final AtomicBoolean disconnected = new AtomicBoolean();
+
 	// --- CONSTRUCTOR ---
 
 	public NonBlockingWebResponse(AsyncContext async) throws IOException {
 		super((HttpServletResponse) async.getResponse());
+		setProperty(PROPERTY_DISCONNECTED, disconnected);
+		async.addListener(new AsyncListener() {
+
+			@Override
+			public final void onTimeout(AsyncEvent event) throws IOException {
+
+				// Do nothing
+			}
+
+			@Override
+			public final void onError(AsyncEvent event) throws IOException {
+				disconnected.set(true);
+			}
+
+			@Override
+			public final void onComplete(AsyncEvent event) throws IOException {
+
+				// Do nothing
+			}
+
+			@Override
+			public final void onStartAsync(AsyncEvent event) throws IOException {
+
+				// Do nothing
+			}
+
+		});
 		listener = new WriteListener() {
 
 			@Override
@@ -87,6 +123,7 @@ public class NonBlockingWebResponse extends AbstractWebResponse {
 			@Override
 			public void onError(Throwable cause) {
 				error.set(cause);
+				disconnected.set(true);
 			}
 
 		};
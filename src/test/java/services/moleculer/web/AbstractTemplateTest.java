@@ -30,6 +30,7 @@ import java.io.ByteArrayOutputStream;
 import java.math.BigInteger;
 import java.nio.charset.StandardCharsets;
 import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
 
 import org.apache.http.Header;
 import org.apache.http.HttpResponse;
@@ -192,6 +193,7 @@ public abstract class AbstractTemplateTest extends TestCase {
 
 		// Add deflater to REST service
 		ResponseDeflater deflater = new ResponseDeflater();
+		deflater.setCompressAbove(0);
 		r1.use(deflater);
 
 		// Template engine test with locale test
@@ -451,6 +453,39 @@ public abstract class AbstractTemplateTest extends TestCase {
 		assertEquals(304, rsp.getStatusLine().getStatusCode());
 		// assertEquals("0", rsp.getLastHeader("Content-Length").getValue());
 
+		// Range request
+		get.reset();
+		get.removeHeaders("If-None-Match");
+		get.setHeader("Range", "bytes=0-5");
+		rsp = cl.execute(get, null).get();
+
+		assertEquals(206, rsp.getStatusLine().getStatusCode());
+		assertTrue(rsp.getLastHeader("Content-Range").getValue().startsWith("bytes 0-5/"));
+		bytes = CommonUtils.readFully(rsp.getEntity().getContent());
+		assertEquals("<html>", new String(bytes, StandardCharsets.UTF_8));
+
+		// Multiple ranges
+		get.reset();
+		get.setHeader("Range", "bytes=0-1,4-5");
+		rsp = cl.execute(get, null).get();
+
+		assertEquals(206, rsp.getStatusLine().getStatusCode());
+		assertTrue(rsp.getLastHeader("Content-Type").getValue().startsWith("multipart/byteranges"));
+		bytes = CommonUtils.readFully(rsp.getEntity().getContent());
+		txt = new String(bytes, StandardCharsets.UTF_8);
+		assertTrue(txt.contains("Content-Range: bytes 0-1/"));
+		assertTrue(txt.contains("Content-Range: bytes 4-5/"));
+
+		// Range with outdated validator (full content)
+		get.reset();
+		get.setHeader("Range", "bytes=0-5");
+		get.setHeader("If-Range", "\"outdated\"");
+		rsp = cl.execute(get, null).get();
+
+		assertEquals(200, rsp.getStatusLine().getStatusCode());
+		get.removeHeaders("Range");
+		get.removeHeaders("If-Range");
+
 		// Favicon
 		get("favicon.ico", 200, "image/x-icon", null);
 
@@ -473,6 +508,17 @@ public abstract class AbstractTemplateTest extends TestCase {
 		assertFalse(txt.contains(","));
 		assertFalse(txt.contains("3"));
 
+		// Gzipped REST (selected by q-values)
+		get.reset();
+		get.setHeader("Accept-Encoding", "deflate;q=0.5, gzip");
+		rsp = cl.execute(get, null).get();
+		assertEquals(200, rsp.getStatusLine().getStatusCode());
+		assertEquals("gzip", rsp.getLastHeader("Content-Encoding").getValue());
+
+		bytes = CommonUtils.readFully(new GZIPInputStream(rsp.getEntity().getContent()));
+		txt = new String(bytes, StandardCharsets.UTF_8);
+		assertTrue(txt.contains("{"));
+
 		// REST without deflating
 		get.reset();
 		get.removeHeaders("Accept-Encoding");
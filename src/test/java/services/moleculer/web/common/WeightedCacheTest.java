@@ -0,0 +1,196 @@
+/**
+ * THIS SOFTWARE IS LICENSED UNDER MIT LICENSE.<br>
+ * <br>
+ * Copyright 2019 Andras Berkes [andras.berkes@programmer.net]<br>
+ * Based on Moleculer Framework for NodeJS [https://moleculer.services].
+ * <br><br>
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:<br>
+ * <br>
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.<br>
+ * <br>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package services.moleculer.web.common;
+
+import java.util.function.ToLongFunction;
+
+import org.junit.Test;
+
+import junit.framework.TestCase;
+
+public class WeightedCacheTest extends TestCase {
+
+	protected long now = 1000;
+
+	/**
+	 * Creates a cache which uses the "now" field as clock. The sampling
+	 * covers all entries of the small caches (exact LRU).
+	 */
+	protected <V> WeightedCache<String, V> createCache(int maxEntries, long maxWeight, ToLongFunction<V> weigher) {
+		WeightedCache<String, V> cache = new WeightedCache<String, V>(maxEntries, maxWeight, weigher) {
+
+			@Override
+			protected long nanoTime() {
+				return now;
+			}
+
+		};
+		cache.samples = 64;
+		return cache;
+	}
+
+	protected void tick() {
+		now++;
+	}
+
+	// --- TESTS ---
+
+	@Test
+	public void testWeightAccounting() throws Exception {
+		WeightedCache<String, byte[]> cache = createCache(100, 1000, v -> v.length);
+		cache.put("a", new byte[10]);
+		cache.put("b", new byte[20]);
+		cache.put("c", new byte[30]);
+		assertEquals(3, cache.size());
+		assertEquals(60, cache.getWeight());
+
+		// Replace (the old weight is subtracted)
+		cache.put("b", new byte[5]);
+		assertEquals(3, cache.size());
+		assertEquals(45, cache.getWeight());
+
+		// Re-weigh a changed value
+		byte[][] holder = { new byte[10] };
+		cache.put("d", holder[0]);
+		assertEquals(55, cache.getWeight());
+		WeightedCache<String, byte[][]> holders = createCache(100, 1000, v -> v[0].length);
+		holders.put("x", holder);
+		holder[0] = new byte[40];
+		holders.update("x", holder);
+		assertEquals(40, holders.getWeight());
+
+		// Update ignores missing and replaced values
+		holders.update("y", holder);
+		assertEquals(1, holders.size());
+		holders.put("x", new byte[][] { new byte[1] });
+		holders.update("x", holder);
+		assertEquals(1, holders.getWeight());
+
+		// Remove
+		assertTrue(cache.remove("a"));
+		assertFalse(cache.remove("a"));
+		assertNull(cache.get("a"));
+		assertEquals(45, cache.getWeight());
+
+		// Remove by prefix
+		cache.put("dir/a", new byte[7]);
+		cache.put("dir/b", new byte[8]);
+		cache.removeIf(k -> k.startsWith("dir/"));
+		assertNull(cache.get("dir/a"));
+		assertEquals(45, cache.getWeight());
+
+		// Values larger than the capacity are not stored
+		cache.put("c", new byte[1001]);
+		assertNull(cache.get("c"));
+		assertEquals(15, cache.getWeight());
+
+		cache.clear();
+		assertEquals(0, cache.size());
+		assertEquals(0, cache.getWeight());
+		assertEquals(0, cache.getEvictions());
+	}
+
+	@Test
+	public void testLruEviction() throws Exception {
+		WeightedCache<String, byte[]> cache = createCache(100, 100, v -> v.length);
+		for (int i = 0; i < 10; i++) {
+			cache.put("k" + i, new byte[10]);
+			tick();
+		}
+		assertEquals(100, cache.getWeight());
+		assertEquals(0, cache.getEvictions());
+
+		// Touch the oldest entries
+		assertNotNull(cache.get("k0"));
+		tick();
+		assertNotNull(cache.get("k1"));
+		tick();
+
+		// Evicts the least recently used entries, until the cache is not full
+		cache.put("k10", new byte[10]);
+		tick();
+		assertEquals(100, cache.getWeight());
+		assertEquals(10, cache.size());
+		assertEquals(1, cache.getEvictions());
+		cache.put("k11", new byte[15]);
+		assertEquals(95, cache.getWeight());
+		assertEquals(9, cache.size());
+		assertEquals(3, cache.getEvictions());
+		assertNull(cache.get("k2"));
+		assertNull(cache.get("k3"));
+		assertNull(cache.get("k4"));
+		assertNotNull(cache.get("k0"));
+		assertNotNull(cache.get("k1"));
+		assertNotNull(cache.get("k10"));
+		assertNotNull(cache.get("k11"));
+
+		// Hits and misses
+		assertEquals(6, cache.getHits());
+		assertEquals(3, cache.getMisses());
+	}
+
+	@Test
+	public void testMaxEntries() throws Exception {
+		WeightedCache<String, byte[]> cache = createCache(10, 1000, v -> v.length);
+		for (int i = 0; i < 10; i++) {
+			cache.put("k" + i, new byte[1]);
+			tick();
+		}
+		assertEquals(10, cache.size());
+		cache.put("k10", new byte[1]);
+		tick();
+		cache.put("k11", new byte[1]);
+		assertEquals(10, cache.size());
+		assertEquals(10, cache.getWeight());
+		assertEquals(2, cache.getEvictions());
+		assertNull(cache.get("k0"));
+		assertNull(cache.get("k1"));
+		assertNotNull(cache.get("k2"));
+		assertNotNull(cache.get("k10"));
+		assertNotNull(cache.get("k11"));
+	}
+
+	@Test
+	public void testSampledEviction() throws Exception {
+		WeightedCache<String, byte[]> cache = createCache(100, 100000, v -> v.length);
+		cache.samples = 8;
+		for (int i = 0; i < 100; i++) {
+			cache.put("k" + i, new byte[1]);
+			tick();
+		}
+
+		// One entry is evicted per new entry (never the newest one)
+		for (int i = 100; i < 1000; i++) {
+			cache.put("k" + i, new byte[1]);
+			tick();
+			assertEquals(100, cache.size());
+			assertEquals(100, cache.getWeight());
+			assertNotNull(cache.get("k" + i));
+		}
+		assertEquals(900, cache.getEvictions());
+	}
+
+}
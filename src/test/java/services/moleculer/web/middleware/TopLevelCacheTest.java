@@ -0,0 +1,486 @@
+/**
+ * THIS SOFTWARE IS LICENSED UNDER MIT LICENSE.<br>
+ * <br>
+ * Copyright 2019 Andras Berkes [andras.berkes@programmer.net]<br>
+ * Based on Moleculer Framework for NodeJS [https://moleculer.services].
+ * <br><br>
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:<br>
+ * <br>
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.<br>
+ * <br>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package services.moleculer.web.middleware;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import junit.framework.TestCase;
+import services.moleculer.cacher.MemoryCacher;
+import io.datatree.Tree;
+import services.moleculer.stream.PacketStream;
+import services.moleculer.web.RequestProcessor;
+import services.moleculer.web.WebRequest;
+import services.moleculer.web.WebResponse;
+import services.moleculer.web.common.HttpConstants;
+
+public class TopLevelCacheTest extends TestCase implements HttpConstants {
+
+	protected MemoryCacher cacher = new MemoryCacher();
+
+	protected TopLevelCache cache = new TopLevelCache(cacher, "/**");
+
+	protected ScheduledExecutorService scheduler;
+
+	@Override
+	protected void setUp() throws Exception {
+		scheduler = Executors.newSingleThreadScheduledExecutor();
+		cache.scheduler = scheduler;
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		scheduler.shutdownNow();
+	}
+
+	// --- TESTS ---
+
+	@Test
+	public void testETag() throws Exception {
+		String etag = TopLevelCache.contentHash("abc".getBytes(StandardCharsets.UTF_8));
+		assertTrue(etag.startsWith("\""));
+		assertTrue(etag.endsWith("-3\""));
+		assertEquals(etag, TopLevelCache.contentHash("abc".getBytes(StandardCharsets.UTF_8)));
+		assertFalse(etag.equals(TopLevelCache.contentHash("abd".getBytes(StandardCharsets.UTF_8))));
+	}
+
+	@Test
+	public void testIfNoneMatch() throws Exception {
+		byte[] data = envelope("\"12ab-3\"", 0);
+		assertTrue(cache.isNotModified(data, request(IF_NONE_MATCH, "\"12ab-3\"")));
+		assertTrue(cache.isNotModified(data, request(IF_NONE_MATCH, "W/\"12ab-3\"")));
+		assertTrue(cache.isNotModified(data, request(IF_NONE_MATCH, "12ab-3")));
+		assertTrue(cache.isNotModified(data, request(IF_NONE_MATCH, "\"x\", \"12ab-3\"")));
+		assertTrue(cache.isNotModified(data, request(IF_NONE_MATCH, "*")));
+		assertFalse(cache.isNotModified(data, request(IF_NONE_MATCH, "\"12ab-4\"")));
+		assertFalse(cache.isNotModified(data, request(IF_NONE_MATCH, "\"12ab\"")));
+		assertFalse(cache.isNotModified(data, request(IF_NONE_MATCH, "")));
+
+		// Unquoted (custom) ETag of the response
+		data = envelope("12ab-3", 0);
+		assertTrue(cache.isNotModified(data, request(IF_NONE_MATCH, "\"12ab-3\"")));
+		assertTrue(cache.isNotModified(data, request(IF_NONE_MATCH, "12ab-3")));
+
+		// Without ETag
+		data = envelope(null, 0);
+		assertFalse(cache.isNotModified(data, request(IF_NONE_MATCH, "\"12ab-3\"")));
+		assertTrue(cache.isNotModified(data, request(IF_NONE_MATCH, "*")));
+	}
+
+	@Test
+	public void testIfModifiedSince() throws Exception {
+		long lastModified = 1500000000000L;
+		byte[] data = envelope("\"12ab-3\"", lastModified + 123);
+		assertTrue(cache.isNotModified(data, request(IF_MODIFIED_SINCE, TopLevelCache.formatDate(lastModified))));
+		assertTrue(cache.isNotModified(data,
+				request(IF_MODIFIED_SINCE, TopLevelCache.formatDate(lastModified + 60000))));
+		assertFalse(cache.isNotModified(data,
+				request(IF_MODIFIED_SINCE, TopLevelCache.formatDate(lastModified - 1000))));
+		assertFalse(cache.isNotModified(data, request(IF_MODIFIED_SINCE, "invalid date")));
+
+		// "If-None-Match" takes precedence
+		assertFalse(cache.isNotModified(data, request(IF_NONE_MATCH, "\"x\"", IF_MODIFIED_SINCE,
+				TopLevelCache.formatDate(lastModified))));
+
+		// Unknown modification time
+		data = envelope("\"12ab-3\"", 0);
+		assertFalse(cache.isNotModified(data, request(IF_MODIFIED_SINCE, TopLevelCache.formatDate(lastModified))));
+
+		// No conditional headers
+		assertFalse(cache.isNotModified(data, request()));
+	}
+
+	@Test
+	public void testNotModifiedResponse() throws Exception {
+		long lastModified = 1500000000000L;
+		byte[] data = envelope("\"12ab-3\"", lastModified);
+
+		// 304 Not Modified (without body and "Content-Length")
+		Response rsp = new Response();
+		cache.sendCached(data, request(IF_NONE_MATCH, "\"12ab-3\""), rsp);
+		assertEquals(304, rsp.status);
+		assertEquals("\"12ab-3\"", rsp.headers.get(ETAG));
+		assertEquals(TopLevelCache.formatDate(lastModified), rsp.headers.get(LAST_MODIFIED));
+		assertNull(rsp.headers.get(CONTENT_LENGTH));
+		assertEquals(0, rsp.body.size());
+		assertTrue(rsp.ended);
+
+		// 200 OK
+		rsp = new Response();
+		cache.sendCached(data, request(IF_NONE_MATCH, "\"x\""), rsp);
+		assertEquals(200, rsp.status);
+		assertEquals("\"12ab-3\"", rsp.headers.get(ETAG));
+		assertEquals("abc", new String(rsp.body.toByteArray(), StandardCharsets.UTF_8));
+		assertTrue(rsp.ended);
+	}
+
+	@Test
+	public void testSingleFlight() throws Exception {
+		Action action = new Action();
+		action.blocker = new CountDownLatch(1);
+		RequestProcessor processor = cache.install(action, null);
+
+		// First request (invokes the action)
+		Response r1 = new Response();
+		Thread leader = new Thread(() -> {
+			try {
+				processor.service(request(), r1);
+			} catch (Exception cause) {
+				cause.printStackTrace();
+			}
+		});
+		leader.start();
+		assertTrue(action.started.await(5, TimeUnit.SECONDS));
+
+		// Concurrent requests wait for the first request
+		Response r2 = new Response();
+		Response r3 = new Response();
+		processor.service(request(), r2);
+		processor.service(request(), r3);
+		assertFalse(r2.ended);
+		assertEquals(1, cache.flights.size());
+
+		// Finish the first request
+		action.blocker.countDown();
+		assertTrue(r1.done.await(5, TimeUnit.SECONDS));
+		assertTrue(r2.done.await(5, TimeUnit.SECONDS));
+		assertTrue(r3.done.await(5, TimeUnit.SECONDS));
+		assertEquals(1, action.calls.get());
+		for (Response r : new Response[] { r1, r2, r3 }) {
+			assertEquals(200, r.status);
+			assertEquals("body1", r.getBody());
+		}
+		assertTrue(cache.flights.isEmpty());
+
+		// Next request (from the cache)
+		Response r4 = new Response();
+		processor.service(request(), r4);
+		assertEquals("body1", r4.getBody());
+		assertEquals(1, action.calls.get());
+	}
+
+	@Test
+	public void testWaiterFallback() throws Exception {
+
+		// Error responses are not shared (the waiting request invokes the
+		// action)
+		Action action = new Action();
+		action.status = 500;
+		action.blocker = new CountDownLatch(1);
+		RequestProcessor processor = cache.install(action, null);
+		Response r1 = new Response();
+		new Thread(() -> {
+			try {
+				processor.service(request(), r1);
+			} catch (Exception cause) {
+				cause.printStackTrace();
+			}
+		}).start();
+		assertTrue(action.started.await(5, TimeUnit.SECONDS));
+		Response r2 = new Response();
+		processor.service(request(), r2);
+		action.blocker.countDown();
+		assertTrue(r2.done.await(5, TimeUnit.SECONDS));
+		assertEquals(500, r1.status);
+		assertEquals(500, r2.status);
+		assertEquals("body2", r2.getBody());
+		assertEquals(2, action.calls.get());
+		assertTrue(cacher.get(key()).waitFor(1000) == null);
+
+		// The action was not called (the response is ended without content)
+		cache.flights.clear();
+		action = new Action();
+		action.cancel = true;
+		RequestProcessor cancelled = cache.install(action, null);
+		Response r3 = new Response();
+		cancelled.service(request(), r3);
+		assertTrue(r3.ended);
+		assertTrue(cacher.get(key()).waitFor(1000) == null);
+		assertTrue(cache.flights.isEmpty());
+
+		// The first request is never finished
+		cache.setFlightTimeout(100);
+		action = new Action();
+		action.end = false;
+		RequestProcessor unfinished = cache.install(action, null);
+		unfinished.service(request(), new Response());
+		action.end = true;
+		Response r4 = new Response();
+		unfinished.service(request(), r4);
+		assertFalse(r4.ended);
+		assertTrue(r4.done.await(5, TimeUnit.SECONDS));
+		assertEquals("body2", r4.getBody());
+		assertEquals(2, action.calls.get());
+
+		// The stalled request is removed (the next request invokes the action)
+		assertTrue(cache.flights.isEmpty());
+		Response r5 = new Response();
+		unfinished.service(request(), r5);
+		assertEquals("body3", r5.getBody());
+		assertEquals(3, action.calls.get());
+	}
+
+	@Test
+	public void testStaleWhileRevalidate() throws Exception {
+		cache.setTtl(60);
+		cache.setStaleWhileRevalidate(60);
+		cache.setFlightTimeout(100);
+		Action action = new Action();
+		RequestProcessor processor = cache.install(action, null);
+
+		// Expired content
+		LinkedHashMap<String, String> headers = new LinkedHashMap<>();
+		byte[] data = TopLevelCache.encode(System.currentTimeMillis() - 1000, 0, 200, headers,
+				"old".getBytes(StandardCharsets.UTF_8));
+		cacher.set(key(), new Tree().setObject(data), 0);
+
+		// The expired content is sent, and the reload is not finished
+		action.end = false;
+		Response r1 = new Response();
+		processor.service(request(), r1);
+		assertEquals("old", r1.getBody());
+		assertEquals(1, action.calls.get());
+
+		// Only one reload at a time
+		Response r2 = new Response();
+		processor.service(request(), r2);
+		assertEquals("old", r2.getBody());
+		assertEquals(1, action.calls.get());
+
+		// The unfinished reload expires
+		Thread.sleep(150);
+		action.end = true;
+		Response r3 = new Response();
+		processor.service(request(), r3);
+		assertEquals("old", r3.getBody());
+		assertEquals(2, action.calls.get());
+		assertTrue(cache.flights.isEmpty());
+
+		// Reloaded content (sent from the cache)
+		Response r4 = new Response();
+		processor.service(request(), r4);
+		assertEquals("body2", r4.getBody());
+		assertEquals(2, action.calls.get());
+	}
+
+	// --- UTILITIES ---
+
+	protected String key() {
+		return cache.createKey(request(), new Response(), "/test", null);
+	}
+
+	/**
+	 * Action which sends its number of calls as body ("body1", "body2",
+	 * etc.).
+	 */
+	protected static class Action extends AbstractRequestProcessor {
+
+		protected final AtomicInteger calls = new AtomicInteger();
+		protected final CountDownLatch started = new CountDownLatch(1);
+		protected volatile CountDownLatch blocker;
+		protected volatile int status = 200;
+		protected volatile boolean end = true;
+		protected volatile boolean cancel;
+
+		protected Action() {
+			super(null);
+		}
+
+		@Override
+		public void service(WebRequest req, WebResponse rsp) throws Exception {
+			int call = calls.incrementAndGet();
+			started.countDown();
+			CountDownLatch latch = blocker;
+			if (latch != null && call == 1) {
+				latch.await(5, TimeUnit.SECONDS);
+			}
+			if (cancel) {
+				rsp.setProperty(PROPERTY_CANCELLED, true);
+				rsp.end();
+				return;
+			}
+			rsp.setStatus(status);
+			rsp.setHeader(CONTENT_TYPE, "text/plain");
+			rsp.send(("body" + call).getBytes(StandardCharsets.UTF_8));
+			if (end) {
+				rsp.end();
+			}
+		}
+
+	}
+
+	protected static byte[] envelope(String etag, long lastModified) {
+		LinkedHashMap<String, String> headers = new LinkedHashMap<>();
+		if (etag != null) {
+			headers.put(ETAG, etag);
+		}
+		return TopLevelCache.encode(0, lastModified, 200, headers, "abc".getBytes(StandardCharsets.UTF_8));
+	}
+
+	protected static WebRequest request(String... headers) {
+		HashMap<String, String> map = new HashMap<>();
+		for (int i = 0; i < headers.length; i += 2) {
+			map.put(headers[i], headers[i + 1]);
+		}
+		return new WebRequest() {
+
+			@Override
+			public String getAddress() {
+				return "127.0.0.1";
+			}
+
+			@Override
+			public String getMethod() {
+				return "GET";
+			}
+
+			@Override
+			public String getPath() {
+				return "/test";
+			}
+
+			@Override
+			public String getQuery() {
+				return null;
+			}
+
+			@Override
+			public int getContentLength() {
+				return 0;
+			}
+
+			@Override
+			public String getContentType() {
+				return null;
+			}
+
+			@Override
+			public PacketStream getBody() {
+				return null;
+			}
+
+			@Override
+			public String getHeader(String name) {
+				return map.get(name);
+			}
+
+			@Override
+			public Iterator<String> getHeaders() {
+				return map.keySet().iterator();
+			}
+
+			@Override
+			public boolean isMultipart() {
+				return false;
+			}
+
+			@Override
+			public String getProtocol() {
+				return "HTTP/1.1";
+			}
+
+			@Override
+			public Object getInternalObject() {
+				return null;
+			}
+
+		};
+	}
+
+	protected static class Response implements WebResponse {
+
+		protected int status = 200;
+		protected final HashMap<String, String> headers = new HashMap<>();
+		protected final ByteArrayOutputStream body = new ByteArrayOutputStream();
+		protected final HashMap<String, Object> properties = new HashMap<>();
+		protected final CountDownLatch done = new CountDownLatch(1);
+		protected volatile boolean ended;
+
+		@Override
+		public void setStatus(int code) {
+			status = code;
+		}
+
+		@Override
+		public int getStatus() {
+			return status;
+		}
+
+		@Override
+		public void setHeader(String name, String value) {
+			headers.put(name, value);
+		}
+
+		@Override
+		public String getHeader(String name) {
+			return headers.get(name);
+		}
+
+		@Override
+		public void send(byte[] bytes) throws IOException {
+			body.write(bytes);
+		}
+
+		@Override
+		public boolean end() {
+			ended = true;
+			done.countDown();
+			return true;
+		}
+
+		@Override
+		public void setProperty(String name, Object value) {
+			properties.put(name, value);
+		}
+
+		@Override
+		public Object getProperty(String name) {
+			return properties.get(name);
+		}
+
+		protected String getBody() {
+			return new String(body.toByteArray(), StandardCharsets.UTF_8);
+		}
+
+		@Override
+		public Object getInternalObject() {
+			return null;
+		}
+
+	}
+
+}
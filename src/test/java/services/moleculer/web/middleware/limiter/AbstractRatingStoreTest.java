@@ -0,0 +1,178 @@
+/**
+ * THIS SOFTWARE IS LICENSED UNDER MIT LICENSE.<br>
+ * <br>
+ * Copyright 2019 Andras Berkes [andras.berkes@programmer.net]<br>
+ * Based on Moleculer Framework for NodeJS [https://moleculer.services].
+ * <br><br>
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:<br>
+ * <br>
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.<br>
+ * <br>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package services.moleculer.web.middleware.limiter;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import junit.framework.TestCase;
+
+/**
+ * Common tests of the rate limiters which allow at most "limit" requests in
+ * any period of "window" length (GCRA, token bucket). The stores use a fake
+ * clock, which is moved by the "sleep" method.
+ */
+public abstract class AbstractRatingStoreTest<T extends RatingStore> extends TestCase {
+
+	protected static final long WINDOW = 1000;
+
+	protected static final long LIMIT = 10;
+
+	protected long now = TimeUnit.SECONDS.toNanos(1000);
+
+	protected abstract RatingStoreFactory createFactory();
+
+	/**
+	 * Creates a store which uses the "now" field as clock.
+	 */
+	protected abstract T createStore(long windowMillis, long limit);
+
+	/**
+	 * Returns the entries (per address) of the store.
+	 */
+	protected abstract Map<String, ?> entries(T store);
+
+	protected void sleep(long millis) {
+		now += TimeUnit.MILLISECONDS.toNanos(millis);
+	}
+
+	protected void assertCounts(T store, long... counts) {
+		for (long count : counts) {
+			assertEquals(count, store.incrementAndGet("a"));
+		}
+	}
+
+	protected void assertRejected(T store) {
+		assertTrue(store.incrementAndGet("a") > LIMIT);
+	}
+
+	protected void assertFull(T store) {
+		for (int i = 1; i <= LIMIT; i++) {
+			assertEquals(i, store.incrementAndGet("a"));
+		}
+		assertRejected(store);
+	}
+
+	// --- TESTS ---
+
+	@Test
+	public void testFactory() throws Exception {
+		RatingStoreFactory factory = createFactory();
+		RatingStore limited = factory.createStore(WINDOW, LIMIT);
+		for (int i = 1; i <= LIMIT; i++) {
+			assertEquals(i, limited.incrementAndGet("a"));
+		}
+		assertTrue(limited.incrementAndGet("a") > LIMIT);
+
+		// Without a known limit, the store does not reject requests
+		RatingStore unlimited = factory.createStore(WINDOW);
+		for (int i = 1; i <= 1000; i++) {
+			assertTrue(unlimited.incrementAndGet("a") <= i);
+		}
+	}
+
+	@Test
+	public void testNoBurstAtWindowBoundary() throws Exception {
+		T store = createStore(WINDOW, LIMIT);
+
+		// Full limit at the end of a window
+		sleep(990);
+		assertFull(store);
+
+		// The next window does not allow another 10 requests
+		sleep(20);
+		for (int i = 0; i < LIMIT; i++) {
+			assertRejected(store);
+		}
+
+		// Other addresses are independent
+		assertEquals(1, store.incrementAndGet("b"));
+	}
+
+	@Test
+	public void testRefillRate() throws Exception {
+		T store = createStore(WINDOW, LIMIT);
+		assertFull(store);
+
+		// One request per 100 milliseconds (window / limit)
+		sleep(99);
+		assertRejected(store);
+		sleep(1);
+		assertCounts(store, 10);
+		assertRejected(store);
+
+		// Half of the limit after half of the window
+		sleep(500);
+		assertCounts(store, 6, 7, 8, 9, 10);
+		assertRejected(store);
+
+		// At most "limit" requests after a longer pause
+		sleep(5000);
+		assertFull(store);
+	}
+
+	@Test
+	public void testRejectedRequests() throws Exception {
+		T store = createStore(WINDOW, LIMIT);
+		assertFull(store);
+
+		// Rejected requests do not consume capacity
+		sleep(50);
+		for (int i = 0; i < 100; i++) {
+			assertRejected(store);
+		}
+		sleep(50);
+		assertCounts(store, 10);
+	}
+
+	@Test
+	public void testLazyCleanup() throws Exception {
+		T store = createStore(WINDOW, LIMIT);
+		Map<String, ?> entries = entries(store);
+		store.incrementAndGet("a");
+		sleep(950);
+		store.incrementAndGet("b");
+		assertEquals(2, entries.size());
+
+		// Expired entries are removed once per window
+		sleep(50);
+		store.incrementAndGet("c");
+		assertEquals(2, entries.size());
+		assertFalse(entries.containsKey("a"));
+
+		// Not before the next window
+		sleep(900);
+		store.incrementAndGet("d");
+		assertEquals(3, entries.size());
+		sleep(100);
+		store.incrementAndGet("d");
+		assertEquals(1, entries.size());
+		assertTrue(entries.containsKey("d"));
+	}
+
+}
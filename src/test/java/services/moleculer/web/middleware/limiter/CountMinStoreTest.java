@@ -0,0 +1,156 @@
+/**
+ * THIS SOFTWARE IS LICENSED UNDER MIT LICENSE.<br>
+ * <br>
+ * Copyright 2019 Andras Berkes [andras.berkes@programmer.net]<br>
+ * Based on Moleculer Framework for NodeJS [https://moleculer.services].
+ * <br><br>
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:<br>
+ * <br>
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.<br>
+ * <br>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package services.moleculer.web.middleware.limiter;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+
+import org.junit.Test;
+
+import junit.framework.TestCase;
+
+public class CountMinStoreTest extends TestCase {
+
+	protected long now = 1000000;
+
+	protected CountMinStore createStore(long windowMillis, int width, int depth, String... allowList) {
+		CountMinStore.Sketch sketch = new CountMinStore.Sketch(width, depth);
+		return new CountMinStore(windowMillis, sketch, 0, new HashSet<>(Arrays.asList(allowList))) {
+
+			@Override
+			protected long currentTimeMillis() {
+				return now;
+			}
+
+		};
+	}
+
+	// --- TESTS ---
+
+	@Test
+	public void testOvercountBound() throws Exception {
+		int width = 1024;
+		int depth = 4;
+		int requests = 20000;
+		CountMinStore store = createStore(60000, width, depth);
+
+		// Heavy hitter
+		for (int i = 1; i <= 1000; i++) {
+			assertTrue(store.incrementAndGet("10.0.0.1") >= i);
+		}
+
+		// The estimate is never less than the real count, and it is
+		// greater by at most e / width * requests (with a probability of
+		// 1 - e^-depth)
+		long bound = (long) Math.ceil(Math.E / width * requests);
+		int exceeded = 0;
+		int addresses = requests - 1000;
+		for (int i = 0; i < addresses; i++) {
+			long count = store.incrementAndGet("192.168." + (i >> 8) + '.' + (i & 0xFF));
+			assertTrue(count >= 1);
+			if (count - 1 > bound) {
+				exceeded++;
+			}
+		}
+		assertTrue("Exceeded: " + exceeded, exceeded < addresses * 0.05);
+		long count = store.incrementAndGet("10.0.0.1");
+		assertTrue(count >= 1001);
+	}
+
+	@Test
+	public void testWindowReset() throws Exception {
+
+		// Packed counters
+		long value = CountMinStore.increment(0, 5);
+		assertEquals(5, value >>> CountMinStore.COUNT_BITS);
+		assertEquals(1, value & CountMinStore.COUNT_MASK);
+		value = CountMinStore.increment(value, 5);
+		assertEquals(2, value & CountMinStore.COUNT_MASK);
+
+		// Counter of a previous window
+		value = CountMinStore.increment(value, 6);
+		assertEquals(6, value >>> CountMinStore.COUNT_BITS);
+		assertEquals(1, value & CountMinStore.COUNT_MASK);
+
+		// Saturated counter
+		value = (6L << CountMinStore.COUNT_BITS) | CountMinStore.COUNT_MASK;
+		assertEquals(value, CountMinStore.increment(value, 6));
+
+		// Lazy reset in the store
+		CountMinStore store = createStore(1000, 64, 2, "10.0.0.9");
+		for (int i = 1; i <= 5; i++) {
+			assertEquals(i, store.incrementAndGet("10.0.0.1"));
+			assertEquals(i, store.incrementAndGet("10.0.0.9"));
+		}
+		now += 999;
+		assertEquals(6, store.incrementAndGet("10.0.0.1"));
+		assertEquals(6, store.incrementAndGet("10.0.0.9"));
+		now += 1;
+		assertEquals(1, store.incrementAndGet("10.0.0.1"));
+		assertEquals(1, store.incrementAndGet("10.0.0.9"));
+		now += 5000;
+		assertEquals(1, store.incrementAndGet("10.0.0.1"));
+		assertEquals(1, store.incrementAndGet("10.0.0.9"));
+	}
+
+	@Test
+	public void testAllowList() throws Exception {
+
+		// Tiny sketch (all addresses collide)
+		CountMinStore store = createStore(60000, 2, 1, "10.0.0.1");
+		for (int i = 0; i < 1000; i++) {
+			store.incrementAndGet("192.168.0." + (i & 0xFF));
+		}
+		assertTrue(store.incrementAndGet("192.168.1.1") > 100);
+
+		// Addresses of the "allowList" are counted exactly
+		for (int i = 1; i <= 10; i++) {
+			assertEquals(i, store.incrementAndGet("10.0.0.1"));
+		}
+	}
+
+	@Test
+	public void testSharedSketch() throws Exception {
+		CountMinStoreFactory factory = new CountMinStoreFactory();
+		factory.setAllowList(Collections.emptySet());
+		RatingStore s1 = factory.createStore(60000, 100);
+		RatingStore s2 = factory.createStore(60000, 100);
+		RatingStore s3 = factory.createStore(1000, 100);
+
+		// One sketch per window
+		assertEquals(2, factory.sketches.size());
+		assertSame(((CountMinStore) s1).sketch, ((CountMinStore) s2).sketch);
+
+		// The stores are salted (the same address is counted separately)
+		for (int i = 1; i <= 5; i++) {
+			assertEquals(i, s1.incrementAndGet("10.0.0.1"));
+		}
+		assertEquals(1, s2.incrementAndGet("10.0.0.1"));
+		assertEquals(1, s3.incrementAndGet("10.0.0.1"));
+	}
+
+}
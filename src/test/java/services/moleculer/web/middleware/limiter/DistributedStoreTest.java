@@ -0,0 +1,170 @@
+/**
+ * THIS SOFTWARE IS LICENSED UNDER MIT LICENSE.<br>
+ * <br>
+ * Copyright 2019 Andras Berkes [andras.berkes@programmer.net]<br>
+ * Based on Moleculer Framework for NodeJS [https://moleculer.services].
+ * <br><br>
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:<br>
+ * <br>
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.<br>
+ * <br>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package services.moleculer.web.middleware.limiter;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import io.datatree.Tree;
+import junit.framework.TestCase;
+import services.moleculer.ServiceBroker;
+import services.moleculer.monitor.ConstantMonitor;
+import services.moleculer.transporter.InternalTransporter;
+
+public class DistributedStoreTest extends TestCase {
+
+	// --- LONG WINDOW (THE TEST DOES NOT CROSS A WINDOW BOUNDARY) ---
+
+	protected static final long WINDOW = TimeUnit.DAYS.toMillis(1);
+
+	// --- NODES ---
+
+	protected ServiceBroker br1;
+	protected ServiceBroker br2;
+
+	protected DistributedStoreFactory f1;
+	protected DistributedStoreFactory f2;
+
+	@Override
+	protected void setUp() throws Exception {
+
+		// Two nodes on a shared (in-process) transporter
+		br1 = ServiceBroker.builder().nodeID("node1").transporter(new InternalTransporter())
+				.monitor(new ConstantMonitor()).build();
+		br2 = ServiceBroker.builder().nodeID("node2").transporter(new InternalTransporter())
+				.monitor(new ConstantMonitor()).build();
+
+		f1 = new DistributedStoreFactory();
+		f1.setSyncMillis(50);
+		br1.createService(f1);
+
+		f2 = new DistributedStoreFactory();
+		f2.setSyncMillis(50);
+		br2.createService(f2);
+
+		br1.start();
+		br2.start();
+
+		// Wait for the discovery of the other node
+		br1.ping("node2").waitFor(10000);
+		br2.ping("node1").waitFor(10000);
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		if (br1 != null) {
+			br1.stop();
+		}
+		if (br2 != null) {
+			br2.stop();
+		}
+	}
+
+	// --- TESTS ---
+
+	@Test
+	public void testSynchronization() throws Exception {
+
+		// The Mappings are created in different order on the nodes
+		RatingStore a1 = f1.createStore(config("/api", "/api/a", "a.list"), WINDOW, 100);
+		RatingStore b1 = f1.createStore(config("/api", "/api/b", "b.list"), WINDOW, 100);
+		RatingStore b2 = f2.createStore(config("/api", "/api/b", "b.list"), WINDOW, 100);
+		RatingStore a2 = f2.createStore(config("/api", "/api/a", "a.list"), WINDOW, 100);
+
+		// Local counters
+		for (int i = 1; i <= 3; i++) {
+			assertEquals(i, a1.incrementAndGet("10.0.0.1"));
+		}
+		assertEquals(1, a2.incrementAndGet("10.0.0.1"));
+		assertEquals(1, b2.incrementAndGet("10.0.0.2"));
+
+		// Wait for the synchronization
+		waitForRemoteHits(a2, "10.0.0.1", 3);
+		waitForRemoteHits(a1, "10.0.0.1", 1);
+		waitForRemoteHits(b1, "10.0.0.2", 1);
+
+		// Cluster-wide counters (per RateLimiter)
+		assertEquals(5, a1.incrementAndGet("10.0.0.1"));
+		assertEquals(2, b1.incrementAndGet("10.0.0.2"));
+		assertEquals(1, b1.incrementAndGet("10.0.0.1"));
+
+		// Only the new hits are sent
+		waitForRemoteHits(a2, "10.0.0.1", 4);
+		waitForRemoteHits(b2, "10.0.0.2", 1);
+		assertEquals(6, a2.incrementAndGet("10.0.0.1"));
+		assertEquals(3, b2.incrementAndGet("10.0.0.2"));
+	}
+
+	@Test
+	public void testStoreIdentity() throws Exception {
+
+		// Recreated Mappings get the existing store
+		RatingStore s1 = f1.createStore(config("/api", "/api/a", "a.list"), WINDOW, 100);
+		assertSame(s1, f1.createStore(config("/api", "/api/a", "a.list"), WINDOW, 100));
+		assertEquals(1, f1.stores.size());
+
+		// Other route, pattern, action, window or limit
+		assertNotSame(s1, f1.createStore(config("/rest", "/rest/a", "a.list"), WINDOW, 100));
+		assertNotSame(s1, f1.createStore(config("/api", "/api/a/:id", "a.list"), WINDOW, 100));
+		assertNotSame(s1, f1.createStore(config("/api", "/api/a", "a.get"), WINDOW, 100));
+		assertNotSame(s1, f1.createStore(config("/api", "/api/a", "a.list"), WINDOW / 2, 100));
+		assertNotSame(s1, f1.createStore(config("/api", "/api/a", "a.list"), WINDOW, 50));
+		assertEquals(6, f1.stores.size());
+
+		// Same ID on all nodes
+		RatingStore s2 = f2.createStore(config("/api", "/api/a", "a.list"), WINDOW, 100);
+		assertEquals(((DistributedStore) s1).getId(), ((DistributedStore) s2).getId());
+	}
+
+	// --- UTILITIES ---
+
+	protected static Tree config(String route, String pattern, String action) {
+		Tree config = new Tree();
+		config.put("route", route);
+		config.put("method", "GET");
+		config.put("pattern", pattern);
+		config.put("action", action);
+		return config;
+	}
+
+	protected static void waitForRemoteHits(RatingStore store, String address, long hits) throws Exception {
+		long timeout = System.currentTimeMillis() + 10000;
+		while (true) {
+			DistributedStore.Counter counter = ((DistributedStore) store).counters.get(address);
+			long remote = counter == null ? 0 : counter.remote.get();
+			if (remote >= hits) {
+				assertEquals(hits, remote);
+				return;
+			}
+			if (System.currentTimeMillis() > timeout) {
+				fail("Timeout (received hits: " + remote + ", expected: " + hits + ")!");
+			}
+			Thread.sleep(20);
+		}
+	}
+
+}
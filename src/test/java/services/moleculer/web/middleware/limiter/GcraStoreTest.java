@@ -0,0 +1,73 @@
+/**
+ * THIS SOFTWARE IS LICENSED UNDER MIT LICENSE.<br>
+ * <br>
+ * Copyright 2019 Andras Berkes [andras.berkes@programmer.net]<br>
+ * Based on Moleculer Framework for NodeJS [https://moleculer.services].
+ * <br><br>
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:<br>
+ * <br>
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.<br>
+ * <br>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package services.moleculer.web.middleware.limiter;
+
+import java.util.Map;
+
+import org.junit.Test;
+
+public class GcraStoreTest extends AbstractRatingStoreTest<GcraStore> {
+
+	@Override
+	protected RatingStoreFactory createFactory() {
+		return new GcraStoreFactory();
+	}
+
+	@Override
+	protected GcraStore createStore(long windowMillis, long limit) {
+		return new GcraStore(windowMillis, limit) {
+
+			@Override
+			protected long nanoTime() {
+				return now;
+			}
+
+		};
+	}
+
+	@Override
+	protected Map<String, ?> entries(GcraStore store) {
+		return store.arrivals;
+	}
+
+	// --- GCRA-SPECIFIC TESTS ---
+
+	@Test
+	public void testEvenSpacing() throws Exception {
+		GcraStore store = createStore(WINDOW, LIMIT);
+		assertFull(store);
+
+		// The theoretical arrival time moves one interval per request
+		long tat = store.arrivals.get("a").get();
+		for (int i = 0; i < 5; i++) {
+			sleep(100);
+			assertCounts(store, 10);
+			assertRejected(store);
+			assertEquals(tat += store.intervalNanos, store.arrivals.get("a").get());
+		}
+	}
+
+}
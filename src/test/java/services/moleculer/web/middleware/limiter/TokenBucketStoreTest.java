@@ -0,0 +1,83 @@
+/**
+ * THIS SOFTWARE IS LICENSED UNDER MIT LICENSE.<br>
+ * <br>
+ * Copyright 2019 Andras Berkes [andras.berkes@programmer.net]<br>
+ * Based on Moleculer Framework for NodeJS [https://moleculer.services].
+ * <br><br>
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:<br>
+ * <br>
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.<br>
+ * <br>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package services.moleculer.web.middleware.limiter;
+
+import java.util.Map;
+
+import org.junit.Test;
+
+public class TokenBucketStoreTest extends AbstractRatingStoreTest<TokenBucketStore> {
+
+	@Override
+	protected RatingStoreFactory createFactory() {
+		return new TokenBucketStoreFactory();
+	}
+
+	@Override
+	protected TokenBucketStore createStore(long windowMillis, long limit) {
+		return new TokenBucketStore(windowMillis, limit) {
+
+			@Override
+			protected long nanoTime() {
+				return now;
+			}
+
+		};
+	}
+
+	@Override
+	protected Map<String, ?> entries(TokenBucketStore store) {
+		return store.buckets;
+	}
+
+	// --- TOKEN BUCKET-SPECIFIC TESTS ---
+
+	@Test
+	public void testFractionsOfTokens() throws Exception {
+		TokenBucketStore store = createStore(WINDOW, LIMIT);
+		assertFull(store);
+
+		// 2.5 tokens after 250 milliseconds (the fraction is kept)
+		sleep(250);
+		assertCounts(store, 9, 10);
+		assertRejected(store);
+		assertEquals(0.5, store.buckets.get("a").get().tokens, 0.000001);
+		sleep(50);
+		assertCounts(store, 10);
+	}
+
+	@Test
+	public void testRejectedCount() throws Exception {
+		TokenBucketStore store = createStore(WINDOW, LIMIT);
+		assertFull(store);
+
+		// Rejected requests get "limit + 1"
+		for (int i = 0; i < 10; i++) {
+			assertEquals(LIMIT + 1, store.incrementAndGet("a"));
+		}
+	}
+
+}
@@ -0,0 +1,121 @@
+/**
+ * THIS SOFTWARE IS LICENSED UNDER MIT LICENSE.<br>
+ * <br>
+ * Copyright 2019 Andras Berkes [andras.berkes@programmer.net]<br>
+ * Based on Moleculer Framework for NodeJS [https://moleculer.services].
+ * <br><br>
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:<br>
+ * <br>
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.<br>
+ * <br>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package services.moleculer.web.router;
+
+import org.junit.Test;
+
+import junit.framework.TestCase;
+
+public class PathPatternTest extends TestCase {
+
+	@Test
+	public void testSimpleVariables() throws Exception {
+		PathPattern p = new PathPattern("/user/:id");
+		assertEquals(1, p.getVariables().length);
+		assertEquals("id", p.getVariables()[0].name);
+
+		int[] offsets = new int[2];
+		assertTrue(p.matches("/user/123", offsets));
+		assertEquals("123", "/user/123".substring(offsets[0], offsets[1]));
+
+		// Empty value (same as the "[^/]*" regex of the previous matcher)
+		assertTrue(p.matches("/user/", offsets));
+		assertEquals(offsets[0], offsets[1]);
+
+		// Values can not contain "/" characters
+		assertFalse(p.matches("/user/1/2", offsets));
+		assertFalse(p.matches("/users/1", offsets));
+		assertFalse(p.matches("/user", null));
+
+		// Pattern without leading "/"
+		p = new PathPattern("user/:id/:action");
+		assertEquals(2, p.getVariables().length);
+		offsets = new int[4];
+		assertTrue(p.matches("/user/5/edit", offsets));
+		assertEquals("5", "/user/5/edit".substring(offsets[0], offsets[1]));
+		assertEquals("edit", "/user/5/edit".substring(offsets[2], offsets[3]));
+		assertFalse(p.matches("/user/5/edit/x", offsets));
+		assertTrue(p.matches("/user/5/edit", null));
+	}
+
+	@Test
+	public void testGreedyVariables() throws Exception {
+
+		// The first variable gets the longest possible value
+		PathPattern p = new PathPattern("/file/:name.:ext");
+		int[] offsets = new int[4];
+		String path = "/file/a.b.c";
+		assertTrue(p.matches(path, offsets));
+		assertEquals("a.b", path.substring(offsets[0], offsets[1]));
+		assertEquals("c", path.substring(offsets[2], offsets[3]));
+
+		path = "/file/a.";
+		assertTrue(p.matches(path, offsets));
+		assertEquals("a", path.substring(offsets[0], offsets[1]));
+		assertEquals("", path.substring(offsets[2], offsets[3]));
+
+		assertFalse(p.matches("/file/abc", offsets));
+		assertFalse(p.matches("/file/a/b.c", offsets));
+
+		// Greedy variable in the middle of the path
+		p = new PathPattern("/x/:name.:ext/y");
+		path = "/x/a.b.c/y";
+		assertTrue(p.matches(path, offsets));
+		assertEquals("a.b", path.substring(offsets[0], offsets[1]));
+		assertEquals("c", path.substring(offsets[2], offsets[3]));
+		assertFalse(p.matches("/x/a.b.c/z", offsets));
+	}
+
+	@Test
+	public void testBacktracking() throws Exception {
+
+		// "a" must give back characters to "b" and to the ".tar" literal
+		PathPattern p = new PathPattern("/:a.:b.tar");
+		int[] offsets = new int[4];
+		String path = "/x.y.tar";
+		assertTrue(p.matches(path, offsets));
+		assertEquals("x", path.substring(offsets[0], offsets[1]));
+		assertEquals("y", path.substring(offsets[2], offsets[3]));
+
+		path = "/x.y.z.tar";
+		assertTrue(p.matches(path, offsets));
+		assertEquals("x.y", path.substring(offsets[0], offsets[1]));
+		assertEquals("z", path.substring(offsets[2], offsets[3]));
+
+		assertFalse(p.matches("/x.tar", offsets));
+		assertFalse(p.matches("/x.y.tar.gz", offsets));
+
+		// Failed attempts do not leave garbage in the offsets
+		p = new PathPattern("/:a.:b/:c");
+		offsets = new int[6];
+		path = "/p.q.r/s";
+		assertTrue(p.matches(path, offsets));
+		assertEquals("p.q", path.substring(offsets[0], offsets[1]));
+		assertEquals("r", path.substring(offsets[2], offsets[3]));
+		assertEquals("s", path.substring(offsets[4], offsets[5]));
+	}
+
+}
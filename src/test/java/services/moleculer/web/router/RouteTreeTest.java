@@ -0,0 +1,178 @@
+/**
+ * THIS SOFTWARE IS LICENSED UNDER MIT LICENSE.<br>
+ * <br>
+ * Copyright 2019 Andras Berkes [andras.berkes@programmer.net]<br>
+ * Based on Moleculer Framework for NodeJS [https://moleculer.services].
+ * <br><br>
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:<br>
+ * <br>
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.<br>
+ * <br>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package services.moleculer.web.router;
+
+import org.junit.Test;
+
+import junit.framework.TestCase;
+import services.moleculer.ServiceBroker;
+import services.moleculer.monitor.ConstantMonitor;
+
+public class RouteTreeTest extends TestCase {
+
+	protected ServiceBroker br;
+
+	@Override
+	protected void setUp() throws Exception {
+		br = ServiceBroker.builder().monitor(new ConstantMonitor()).build();
+		br.start();
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		if (br != null) {
+			br.stop();
+		}
+	}
+
+	// ---------------- TESTS ----------------
+
+	@Test
+	public void testSegmentTypes() throws Exception {
+		RouteTree tree = new RouteTree();
+
+		// Added in "reverse" order (the definition order does not matter)
+		tree.addMapping(mapping("ALL", "/a/*", "wildcard"));
+		tree.addMapping(mapping("ALL", "/a/:id", "variable"));
+		tree.addMapping(mapping("ALL", "/a/b", "static"));
+		tree.addMapping(mapping("ALL", "/f/*", "files"));
+		tree.addMapping(mapping("ALL", "/f/:name.:ext", "complex"));
+
+		// Static segment beats variable
+		assertAction(tree, "GET", "/a/b", "static");
+
+		// Variable segment
+		RouteMatch match = assertAction(tree, "GET", "/a/c", "variable");
+		assertEquals(1, match.size());
+		assertEquals("c", match.getValue(0));
+
+		// The variable can not match more segments, the wildcard matches
+		assertAction(tree, "GET", "/a/b/c", "wildcard");
+		assertAction(tree, "GET", "/a/c/d/e", "wildcard");
+
+		// Complex segment beats wildcard
+		match = assertAction(tree, "GET", "/f/x.y.z", "complex");
+		assertEquals(2, match.size());
+		assertEquals("x.y", match.getValue(0));
+		assertEquals("z", match.getValue(1));
+		assertAction(tree, "GET", "/f/readme", "files");
+
+		// Not found
+		assertNull(tree.find("GET", "/b"));
+		assertNull(tree.find("GET", "/a"));
+		assertNull(tree.find("GET", ""));
+		assertNull(tree.find("GET", "a/b"));
+	}
+
+	@Test
+	public void testBacktrackingInTree() throws Exception {
+		RouteTree tree = new RouteTree();
+		tree.addMapping(mapping("ALL", "/user/:id/avatar", "avatar"));
+		tree.addMapping(mapping("ALL", "/user/me/settings", "settings"));
+
+		// Static "me" branch fails, the variable branch matches
+		RouteMatch match = assertAction(tree, "GET", "/user/me/avatar", "avatar");
+		assertEquals("me", match.getValue(0));
+		assertAction(tree, "GET", "/user/me/settings", "settings");
+		assertNull(tree.find("GET", "/user/me"));
+	}
+
+	@Test
+	public void testHttpMethods() throws Exception {
+		RouteTree tree = new RouteTree();
+		tree.addMapping(mapping("ALL", "/user/:id", "user.any"));
+		tree.addMapping(mapping("GET", "/user/:id", "user.get"));
+		tree.addMapping(mapping("ALL", "/list", "list.any"));
+		tree.addMapping(mapping("POST", "/list", "list.create"));
+
+		// Method-specific mapping beats "ALL"
+		assertAction(tree, "GET", "/user/1", "user.get");
+		assertAction(tree, "POST", "/list", "list.create");
+
+		// Other methods
+		assertAction(tree, "DELETE", "/user/1", "user.any");
+		assertAction(tree, "GET", "/list", "list.any");
+	}
+
+	@Test
+	public void testPrecedence() throws Exception {
+
+		// Route #0 whitelists "/math*", route #1 has an alias for the same
+		// path. The RouteTree (and the ApiGateway) checks the aliases of all
+		// Routes before the whitelists, so the alias of the second Route
+		// wins. The previous linear search returned the first Route.
+		Route first = new Route();
+		first.setWhiteList("/math*");
+		Route second = new Route();
+		RouteTree tree = new RouteTree();
+		tree.addWhiteListEntry(first, 0, "/math*");
+		tree.addMapping(mapping("GET", "/math/add", "alias.add"));
+		assertAction(tree, "GET", "/math/add", "alias.add");
+		assertSame(first, tree.findRoute("/math/add"));
+
+		// More specific segment beats the definition order
+		tree = new RouteTree();
+		tree.addMapping(mapping("GET", "/item/:id", "item.get"));
+		tree.addMapping(mapping("GET", "/item/new", "item.form"));
+		assertAction(tree, "GET", "/item/new", "item.form");
+		assertAction(tree, "GET", "/item/5", "item.get");
+
+		// Whitelists: the first (lowest index) Route wins
+		tree = new RouteTree();
+		tree.addWhiteListEntry(second, 1, "/math/add");
+		tree.addWhiteListEntry(first, 0, "/math*");
+		assertSame(first, tree.findRoute("/math/add"));
+		assertSame(first, tree.findRoute("/math/sub"));
+		assertNull(tree.findRoute("/other/add"));
+
+		// Route with "ALL" mapping policy is used only if no earlier Route
+		// whitelists the path
+		Route api = new Route("/api");
+		api.setMappingPolicy(MappingPolicy.ALL);
+		Route restricted = new Route("/api");
+		tree = new RouteTree();
+		tree.addWhiteListEntry(first, 0, "/math*");
+		tree.addPolicyRoute(api, 1);
+		tree.addWhiteListEntry(restricted, 2, "/user*");
+		assertSame(first, tree.findRoute("/math/add"));
+		assertSame(api, tree.findRoute("/api/user/get"));
+		assertNull(tree.findRoute("/user/get"));
+	}
+
+	// ---------------- UTILITIES ----------------
+
+	protected Mapping mapping(String httpMethod, String pathPattern, String actionName) {
+		return new Mapping(br, httpMethod, pathPattern, actionName, null, null, null, null, null, null);
+	}
+
+	protected RouteMatch assertAction(RouteTree tree, String httpMethod, String path, String actionName) {
+		RouteMatch match = tree.find(httpMethod, path);
+		assertNotNull(httpMethod + ' ' + path + " not found", match);
+		assertEquals(actionName, match.mapping.actionName);
+		return match;
+	}
+
+}